@@ -179,7 +179,7 @@ public class AudioActivity extends Activity implements WebRtcClient.RtcListener,
     }
 
     public void answer(String callerId) throws JSONException {
-        client.sendMessage(callerId, "init", null);
+        client.call(callerId);
     }
 
 
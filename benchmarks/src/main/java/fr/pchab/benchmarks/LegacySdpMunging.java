@@ -0,0 +1,118 @@
+package fr.pchab.benchmarks;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex and split based rewrites WebRtcClient used before the SDP model,
+ * kept unchanged but for the logging, as the baseline of the benchmarks.
+ */
+final class LegacySdpMunging {
+    private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+
+    private LegacySdpMunging() {}
+
+    static String setStartBitrate(String codec, boolean isVideoCodec, String sdpDescription, int bitrateKbps) {
+        String[] lines = sdpDescription.split("\r\n");
+        int rtpmapLineIndex = -1;
+        boolean sdpFormatUpdated = false;
+        String codecRtpMap = null;
+        // Search for codec rtpmap in format
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
+        Pattern codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                codecRtpMap = codecMatcher.group(1);
+                rtpmapLineIndex = i;
+                break;
+            }
+        }
+        if (codecRtpMap == null) {
+            return sdpDescription;
+        }
+
+        // Check if a=fmtp string already exist in remote SDP for this codec and
+        // update it with new bitrate parameter.
+        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
+        codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                if (isVideoCodec) {
+                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
+                } else {
+                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
+                }
+                sdpFormatUpdated = true;
+                break;
+            }
+        }
+
+        StringBuilder newSdpDescription = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            newSdpDescription.append(lines[i]).append("\r\n");
+            // Append new a=fmtp line if no such line exist for a codec.
+            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+                String bitrateSet;
+                if (isVideoCodec) {
+                    bitrateSet = "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
+                } else {
+                    bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
+                            + (bitrateKbps * 1000);
+                }
+                newSdpDescription.append(bitrateSet).append("\r\n");
+            }
+        }
+        return newSdpDescription.toString();
+    }
+
+    static String preferCodec(String sdpDescription, String codec, boolean isAudio) {
+        String[] lines = sdpDescription.split("\r\n");
+        int mLineIndex = -1;
+        String codecRtpMap = null;
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
+        Pattern codecPattern = Pattern.compile(regex);
+        String mediaDescription = "m=video ";
+        if (isAudio) {
+            mediaDescription = "m=audio ";
+        }
+        for (int i = 0; (i < lines.length) && (mLineIndex == -1 || codecRtpMap == null); i++) {
+            if (lines[i].startsWith(mediaDescription)) {
+                mLineIndex = i;
+                continue;
+            }
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                codecRtpMap = codecMatcher.group(1);
+            }
+        }
+        if (mLineIndex == -1 || codecRtpMap == null) {
+            return sdpDescription;
+        }
+        String[] origMLineParts = lines[mLineIndex].split(" ");
+        if (origMLineParts.length > 3) {
+            StringBuilder newMLine = new StringBuilder();
+            int origPartIndex = 0;
+            // Format is: m=<media> <port> <proto> <fmt> ...
+            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+            newMLine.append(codecRtpMap);
+            for (; origPartIndex < origMLineParts.length; origPartIndex++) {
+                if (!origMLineParts[origPartIndex].equals(codecRtpMap)) {
+                    newMLine.append(" ").append(origMLineParts[origPartIndex]);
+                }
+            }
+            lines[mLineIndex] = newMLine.toString();
+        }
+        StringBuilder newSdpDescription = new StringBuilder();
+        for (String line : lines) {
+            newSdpDescription.append(line).append("\r\n");
+        }
+        return newSdpDescription.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package fr.pchab.benchmarks;
+
+import fr.pchab.webrtcclient.PeerConnectionParameters;
+import fr.pchab.webrtcclient.SdpTransform;
+import fr.pchab.webrtcclient.SdpTransformChain;
+import fr.pchab.webrtcclient.SdpTransforms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the whole rewrite a description goes through in WebRtcClient: the chain
+ * built from the peer connection parameters, plus for remote descriptions the
+ * per-peer bandwidth cap, as overrideRemoteDescription runs it. The legacy runs
+ * apply the same rewrites one string pass after the other, as before the chain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SdpChainBenchmark {
+    private static final int BANDWIDTH_CAP_KBPS = 500;
+
+    @Param({SdpCorpus.AUDIO_ONLY, SdpCorpus.AUDIO_VIDEO, SdpCorpus.MULTI_CODEC, SdpCorpus.BUNDLE_EXTMAPS})
+    public String corpus;
+
+    private String sdp;
+    private PeerConnectionParameters params;
+    private SdpTransformChain chain;
+    private SdpTransform bandwidthCap;
+
+    @Setup
+    public void setUp() {
+        sdp = SdpCorpus.load(corpus);
+        params = new PeerConnectionParameters(true, false, 1280, 720, 30, 1000, "H264", true, 32, "ISAC", false,
+                true);
+        chain = SdpTransformChain.fromParameters(params);
+        bandwidthCap = SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO, params.videoCodec, BANDWIDTH_CAP_KBPS);
+        // both runs must do the same work for their scores to compare
+        if (!canonical(local()).equals(canonical(legacyLocal()))
+                || !canonical(remote()).equals(canonical(legacyRemote()))) {
+            throw new IllegalStateException("Chain and legacy rewrites differ for " + corpus);
+        }
+    }
+
+    /**
+     * The description with the fmtp parameters of each payload type merged and sorted.
+     * The legacy code separates the parameters it appends with "; ", and adds a second
+     * fmtp line when the first parameter of the existing one is not numeric.
+     */
+    private static String canonical(String sdp) {
+        StringBuilder lines = new StringBuilder();
+        Map<String, Map<String, String>> fmtp = new TreeMap<>();
+        int section = 0;
+        for (String line : sdp.split("\r?\n")) {
+            if (line.startsWith("m=")) {
+                section++;
+            }
+            if (!line.startsWith("a=fmtp:")) {
+                lines.append(line).append('\n');
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String key = section + " " + line.substring("a=fmtp:".length(), space);
+            Map<String, String> params = fmtp.get(key);
+            if (params == null) {
+                params = new TreeMap<>();
+                fmtp.put(key, params);
+            }
+            for (String param : line.substring(space + 1).split(";")) {
+                param = param.trim();
+                int eq = param.indexOf('=');
+                params.put(eq < 0 ? param : param.substring(0, eq), eq < 0 ? "" : param.substring(eq + 1));
+            }
+        }
+        return lines.append(fmtp).toString();
+    }
+
+    @Benchmark
+    public String local() {
+        return chain.apply(sdp, SdpTransformChain.Direction.LOCAL);
+    }
+
+    @Benchmark
+    public String remote() {
+        return chain.apply(sdp, SdpTransformChain.Direction.REMOTE);
+    }
+
+    @Benchmark
+    public String remoteWithBandwidthCap() {
+        return chain.apply(sdp, SdpTransformChain.Direction.REMOTE, bandwidthCap);
+    }
+
+    @Benchmark
+    public String legacyLocal() {
+        return LegacySdpMunging.preferCodec(sdp, params.audioCodec, true);
+    }
+
+    @Benchmark
+    public String legacyRemote() {
+        String result = LegacySdpMunging.preferCodec(sdp, params.audioCodec, true);
+        result = LegacySdpMunging.setStartBitrate("opus", false, result, params.audioStartBitrate);
+        return LegacySdpMunging.setStartBitrate(params.videoCodec, true, result, params.videoStartBitrate);
+    }
+}
@@ -0,0 +1,55 @@
+package fr.pchab.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Session descriptions the benchmarks run on, read from the sdp/ resources.
+ *
+ * <ul>
+ *   <li>audio-only: an audio call as sent by WebRtcClient;</li>
+ *   <li>audio-video: audio plus VP8/VP9/H264 video with rtx;</li>
+ *   <li>multi-codec: every audio codec and telephone-event rate, VP8, two VP9 and
+ *   six H264 profiles, AV1, red, ulpfec and flexfec;</li>
+ *   <li>bundle-extmaps: four bundled m-sections, two of them video with simulcast
+ *   or an ssrc group, each with a long list of header extensions.</li>
+ * </ul>
+ */
+public final class SdpCorpus {
+    public static final String AUDIO_ONLY = "audio-only";
+    public static final String AUDIO_VIDEO = "audio-video";
+    public static final String MULTI_CODEC = "multi-codec";
+    public static final String BUNDLE_EXTMAPS = "bundle-extmaps";
+
+    private SdpCorpus() {}
+
+    /**
+     * @param name one of the corpus names
+     * @return the description with CRLF line endings, as a PeerConnection produces it
+     */
+    public static String load(String name) {
+        InputStream in = SdpCorpus.class.getResourceAsStream("/sdp/" + name + ".sdp");
+        if (in == null) {
+            throw new IllegalArgumentException("No SDP named " + name);
+        }
+        StringBuilder sdp = new StringBuilder(16 * 1024);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        sdp.append(line).append("\r\n");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read SDP " + name, e);
+        }
+        return sdp.toString();
+    }
+}
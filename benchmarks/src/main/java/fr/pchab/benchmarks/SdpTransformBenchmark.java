@@ -0,0 +1,148 @@
+package fr.pchab.benchmarks;
+
+import fr.pchab.webrtcclient.SdpModel;
+import fr.pchab.webrtcclient.SdpTransform;
+import fr.pchab.webrtcclient.SdpTransforms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each stock transform on its own.
+ *
+ * A transform edits a parsed model in place, so every run parses, applies and
+ * serializes, as the chain does for a single stage. The parseAndSerialize run is
+ * the fixed part; what a transform adds is the difference. The legacy runs are the
+ * string rewrites the transforms replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SdpTransformBenchmark {
+    private static final int AUDIO_BITRATE_KBPS = 32;
+    private static final int VIDEO_BITRATE_KBPS = 1000;
+    private static final int BANDWIDTH_CAP_KBPS = 500;
+
+    @Param({SdpCorpus.AUDIO_ONLY, SdpCorpus.AUDIO_VIDEO, SdpCorpus.MULTI_CODEC, SdpCorpus.BUNDLE_EXTMAPS})
+    public String corpus;
+
+    private String sdp;
+    private SdpTransform preferAudioCodec;
+    private SdpTransform preferVideoCodec;
+    private SdpTransform audioStartBitrate;
+    private SdpTransform videoStartBitrate;
+    private SdpTransform maxBitrate;
+    private SdpTransform stripCodecs;
+    private SdpTransform opusParameters;
+    private SdpTransform minimize;
+
+    @Setup
+    public void setUp() {
+        sdp = SdpCorpus.load(corpus);
+        preferAudioCodec = SdpTransforms.preferCodec(SdpTransforms.MEDIA_AUDIO, "ISAC");
+        preferVideoCodec = SdpTransforms.preferCodec(SdpTransforms.MEDIA_VIDEO, "H264");
+        audioStartBitrate = SdpTransforms.startBitrate(SdpTransforms.MEDIA_AUDIO, "opus", AUDIO_BITRATE_KBPS);
+        videoStartBitrate = SdpTransforms.startBitrate(SdpTransforms.MEDIA_VIDEO, "VP8", VIDEO_BITRATE_KBPS);
+        maxBitrate = SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO, "VP8", BANDWIDTH_CAP_KBPS);
+        stripCodecs = SdpTransforms.stripCodecs(SdpTransforms.MEDIA_VIDEO, "VP9", "AV1");
+        Map<String, String> opus = new LinkedHashMap<>();
+        opus.put("useinbandfec", "1");
+        opus.put("usedtx", "1");
+        opusParameters = SdpTransforms.opusParameters(opus);
+        minimize = SdpTransforms.minimize(new String[] {"opus", "telephone-event", "VP8"},
+                new String[] {"http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+                        "urn:3gpp:video-orientation"});
+    }
+
+    private String run(SdpTransform transform) {
+        SdpModel model = SdpModel.parse(sdp);
+        transform.apply(model);
+        return model.toString();
+    }
+
+    @Benchmark
+    public SdpModel parse() {
+        return SdpModel.parse(sdp);
+    }
+
+    @Benchmark
+    public String parseAndSerialize() {
+        return SdpModel.parse(sdp).toString();
+    }
+
+    @Benchmark
+    public String preferAudioCodec() {
+        return run(preferAudioCodec);
+    }
+
+    @Benchmark
+    public String preferVideoCodec() {
+        return run(preferVideoCodec);
+    }
+
+    @Benchmark
+    public String audioStartBitrate() {
+        return run(audioStartBitrate);
+    }
+
+    @Benchmark
+    public String videoStartBitrate() {
+        return run(videoStartBitrate);
+    }
+
+    @Benchmark
+    public String maxBitrate() {
+        return run(maxBitrate);
+    }
+
+    @Benchmark
+    public String stripCodecs() {
+        return run(stripCodecs);
+    }
+
+    @Benchmark
+    public String opusParameters() {
+        return run(opusParameters);
+    }
+
+    @Benchmark
+    public String minimize() {
+        return run(minimize);
+    }
+
+    @Benchmark
+    public String legacyPreferAudioCodec() {
+        return LegacySdpMunging.preferCodec(sdp, "ISAC", true);
+    }
+
+    @Benchmark
+    public String legacyPreferVideoCodec() {
+        return LegacySdpMunging.preferCodec(sdp, "H264", false);
+    }
+
+    @Benchmark
+    public String legacyAudioStartBitrate() {
+        return LegacySdpMunging.setStartBitrate("opus", false, sdp, AUDIO_BITRATE_KBPS);
+    }
+
+    @Benchmark
+    public String legacyVideoStartBitrate() {
+        return LegacySdpMunging.setStartBitrate("VP8", true, sdp, VIDEO_BITRATE_KBPS);
+    }
+}
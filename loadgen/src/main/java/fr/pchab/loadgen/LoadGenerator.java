@@ -0,0 +1,185 @@
+package fr.pchab.loadgen;
+
+import fr.pchab.webrtcclient.LoopbackSignalingTransport;
+import fr.pchab.webrtcclient.SignalingTransport;
+import fr.pchab.webrtcclient.SocketIoSignalingTransport;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives many simulated signaling clients against a ProjectRTC server, or against
+ * an in-process stand-in when no server is given, and reports messages per second,
+ * end-to-end latency percentiles and errors.
+ *
+ * <pre>
+ *   gradlew :loadgen:run -PappArgs="--clients 200 --duration 60 --video"
+ *   java fr.pchab.loadgen.LoadGenerator --server http://10.0.0.1:3000/ --clients 50
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final long CONNECT_TIMEOUT_MS = 30000;
+    private static final long DRAIN_MS = 1000;
+
+    private int clients = 100;
+    private int durationSeconds = 30;
+    private String server = null;
+    private boolean video = false;
+    private boolean binary = false;
+    private int candidates = 8;
+    private long thinkMs = 100;
+    private long timeoutMs = 5000;
+    private long connectIntervalMs = 0;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        int errors = generator.run();
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("usage: LoadGenerator [--clients n] [--duration s] [--server url] [--video]"
+                + " [--binary] [--candidates n] [--think ms] [--timeout ms] [--connect-interval ms]");
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--video":
+                    video = true;
+                    break;
+                case "--binary":
+                    binary = true;
+                    break;
+                case "--server":
+                    server = value(args, ++i, arg);
+                    break;
+                case "--clients":
+                    clients = intValue(args, ++i, arg);
+                    break;
+                case "--duration":
+                    durationSeconds = intValue(args, ++i, arg);
+                    break;
+                case "--candidates":
+                    candidates = intValue(args, ++i, arg);
+                    break;
+                case "--think":
+                    thinkMs = intValue(args, ++i, arg);
+                    break;
+                case "--timeout":
+                    timeoutMs = intValue(args, ++i, arg);
+                    break;
+                case "--connect-interval":
+                    connectIntervalMs = intValue(args, ++i, arg);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (clients < 2 || clients % 2 != 0) {
+            throw new IllegalArgumentException("--clients must be an even number of at least 2");
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int intValue(String[] args, int index, String option) {
+        try {
+            return Integer.parseInt(value(args, index, option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value for " + option + ": " + args[index]);
+        }
+    }
+
+    /**
+     * @return number of errors, timeouts, malformed, unexpected and lost messages
+     */
+    private int run() throws InterruptedException, URISyntaxException {
+        LoopbackSignalingTransport.Hub hub = server == null ? new LoopbackSignalingTransport.Hub() : null;
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        LoadStats stats = new LoadStats();
+        CountDownLatch ready = new CountDownLatch(clients);
+
+        System.out.println(String.format(Locale.US, "%d clients, %s, %d candidates per side, %s, server %s",
+                clients, video ? "audio+video" : "audio only", candidates, binary ? "binary" : "json",
+                server == null ? "in-process" : server));
+
+        List<SimulatedClient> simulated = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            SignalingTransport transport = hub != null ? hub.createTransport() : new SocketIoSignalingTransport(server);
+            SimulatedClient client = new SimulatedClient(transport, new SignalingScenario(video, candidates),
+                    stats, scheduler, ready, binary);
+            simulated.add(client);
+            client.connect();
+            if (connectIntervalMs > 0) {
+                Thread.sleep(connectIntervalMs);
+            }
+        }
+        if (!ready.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            System.err.println((ready.getCount()) + " clients did not get an id, aborting");
+            shutdown(simulated, hub, scheduler);
+            return (int) ready.getCount();
+        }
+
+        for (int i = 0; i < clients; i += 2) {
+            SimulatedClient callee = simulated.get(i);
+            SimulatedClient caller = simulated.get(i + 1);
+            callee.pair(caller.getId(), true, thinkMs, timeoutMs);
+            caller.pair(callee.getId(), false, thinkMs, timeoutMs);
+        }
+        long start = System.nanoTime();
+        for (SimulatedClient client : simulated) {
+            client.start();
+        }
+
+        long lastReceived = 0;
+        for (int second = 1; second <= durationSeconds; second++) {
+            Thread.sleep(1000);
+            long received = stats.getReceived();
+            System.out.println(String.format(Locale.US, "%3ds %8d msg/s %6d errors",
+                    second, received - lastReceived, stats.getErrors()));
+            lastReceived = received;
+        }
+        long elapsed = System.nanoTime() - start;
+        for (SimulatedClient client : simulated) {
+            client.stop();
+        }
+        //let the last calls finish so their messages are not counted as lost
+        Thread.sleep(DRAIN_MS);
+
+        System.out.println(stats.report(elapsed));
+        shutdown(simulated, hub, scheduler);
+        return (int) Math.min(Integer.MAX_VALUE, stats.getErrors() + stats.getLost());
+    }
+
+    private static void shutdown(List<SimulatedClient> simulated, LoopbackSignalingTransport.Hub hub,
+                                 ScheduledExecutorService scheduler) {
+        for (SimulatedClient client : simulated) {
+            client.disconnect();
+        }
+        scheduler.shutdownNow();
+        if (hub != null) {
+            hub.shutdown();
+        }
+    }
+}
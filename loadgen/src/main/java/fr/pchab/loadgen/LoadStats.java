@@ -0,0 +1,105 @@
+package fr.pchab.loadgen;
+
+import fr.pchab.webrtcclient.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies shared by the simulated clients of a run.
+ *
+ * A message is identified by its sender, recipient and per peer sequence number,
+ * so its end-to-end latency is measured from the send time kept here; the clients
+ * all run in this process even when the server does not.
+ */
+public class LoadStats {
+    private final ConcurrentHashMap<String, Long> inFlight = new ConcurrentHashMap<>();
+    private final LatencyHistogram messageLatency = new LatencyHistogram();
+    private final LatencyHistogram callSetup = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+
+    void onSent(String from, String to, long peerSeq, int bytes) {
+        inFlight.put(key(from, to, peerSeq), System.nanoTime());
+        sent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    void onReceived(String from, String to, long peerSeq) {
+        received.incrementAndGet();
+        Long sentNanos = inFlight.remove(key(from, to, peerSeq));
+        if (sentNanos != null) {
+            messageLatency.record(System.nanoTime() - sentNanos);
+        }
+    }
+
+    void onCallCompleted(long setupNanos) {
+        calls.incrementAndGet();
+        callSetup.record(setupNanos);
+    }
+
+    void onTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    void onMalformed() {
+        malformed.incrementAndGet();
+    }
+
+    void onUnexpected() {
+        unexpected.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    /** @return messages sent and never received */
+    public int getLost() {
+        return inFlight.size();
+    }
+
+    public long getErrors() {
+        return timeouts.get() + malformed.get() + unexpected.get();
+    }
+
+    /**
+     * @param elapsedNanos duration of the run
+     * @return a human readable summary
+     */
+    public String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        LatencyHistogram.Snapshot latency = messageLatency.snapshot();
+        LatencyHistogram.Snapshot setup = callSetup.snapshot();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "messages: %d sent, %d received, %.0f msg/s, %.1f KB/s sent%n",
+                sent.get(), received.get(), received.get() / seconds, bytesSent.get() / 1024.0 / seconds));
+        report.append(String.format(Locale.US, "latency:  p50 %s, p90 %s, p99 %s, max %s%n",
+                millis(latency.getPercentileNanos(50)), millis(latency.getPercentileNanos(90)),
+                millis(latency.getPercentileNanos(99)), millis(latency.getMaxNanos())));
+        report.append(String.format(Locale.US, "calls:    %d completed, %.1f calls/s, setup p50 %s, p99 %s%n",
+                calls.get(), calls.get() / seconds, millis(setup.getPercentileNanos(50)),
+                millis(setup.getPercentileNanos(99))));
+        report.append(String.format(Locale.US, "errors:   %d timeouts, %d malformed, %d unexpected, %d lost",
+                timeouts.get(), malformed.get(), unexpected.get(), getLost()));
+        return report.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+
+    private static String key(String from, String to, long peerSeq) {
+        return from + '>' + to + '#' + peerSeq;
+    }
+}
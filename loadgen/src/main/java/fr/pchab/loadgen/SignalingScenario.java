@@ -0,0 +1,170 @@
+package fr.pchab.loadgen;
+
+import fr.pchab.webrtcclient.SignalingMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Offers, answers and candidates shaped like the ones WebRtcClient exchanges:
+ * Chrome-style descriptions with opus and, for video calls, VP8/VP9/H264 with rtx,
+ * and host/srflx/relay candidates for each m-line.
+ */
+public class SignalingScenario {
+    private final boolean video;
+    private final int candidatesPerSide;
+    private final Random random = new Random();
+
+    /**
+     * @param video true for audio and video descriptions, false for audio only
+     * @param candidatesPerSide candidates sent by each side of a call
+     */
+    public SignalingScenario(boolean video, int candidatesPerSide) {
+        this.video = video;
+        this.candidatesPerSide = candidatesPerSide;
+    }
+
+    public int getCandidatesPerSide() {
+        return candidatesPerSide;
+    }
+
+    /** @return a description of the given type, "offer" or "answer" */
+    public String description(String type) {
+        boolean offer = SignalingMessage.TYPE_OFFER.equals(type);
+        StringBuilder sdp = new StringBuilder(video ? 6000 : 2500);
+        line(sdp, "v=0");
+        line(sdp, "o=- " + (random.nextLong() & Long.MAX_VALUE) + " 2 IN IP4 127.0.0.1");
+        line(sdp, "s=-");
+        line(sdp, "t=0 0");
+        line(sdp, video ? "a=group:BUNDLE audio video" : "a=group:BUNDLE audio");
+        line(sdp, "a=msid-semantic: WMS ARDAMS");
+        String ufrag = token(4);
+        String pwd = token(24);
+        String fingerprint = fingerprint();
+        String setup = offer ? "actpass" : "active";
+
+        line(sdp, "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126");
+        transport(sdp, "audio", ufrag, pwd, fingerprint, setup);
+        line(sdp, "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level");
+        line(sdp, "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time");
+        line(sdp, "a=sendrecv");
+        line(sdp, "a=rtcp-mux");
+        line(sdp, "a=rtpmap:111 opus/48000/2");
+        line(sdp, "a=fmtp:111 minptime=10; useinbandfec=1");
+        line(sdp, "a=rtpmap:103 ISAC/16000");
+        line(sdp, "a=rtpmap:104 ISAC/32000");
+        line(sdp, "a=rtpmap:9 G722/8000");
+        line(sdp, "a=rtpmap:0 PCMU/8000");
+        line(sdp, "a=rtpmap:8 PCMA/8000");
+        line(sdp, "a=rtpmap:106 CN/32000");
+        line(sdp, "a=rtpmap:105 CN/16000");
+        line(sdp, "a=rtpmap:13 CN/8000");
+        line(sdp, "a=rtpmap:126 telephone-event/8000");
+        line(sdp, "a=maxptime:60");
+        ssrc(sdp, "ARDAMSa0");
+
+        if (video) {
+            line(sdp, "m=video 9 UDP/TLS/RTP/SAVPF 100 101 107 116 117 96 97 99 98");
+            transport(sdp, "video", ufrag, pwd, fingerprint, setup);
+            line(sdp, "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset");
+            line(sdp, "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time");
+            line(sdp, "a=extmap:4 urn:3gpp:video-orientation");
+            line(sdp, "a=sendrecv");
+            line(sdp, "a=rtcp-mux");
+            videoCodec(sdp, 100, "VP8", 96);
+            videoCodec(sdp, 101, "VP9", 97);
+            videoCodec(sdp, 107, "H264", 99);
+            line(sdp, "a=fmtp:107 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f");
+            line(sdp, "a=rtpmap:116 red/90000");
+            line(sdp, "a=rtpmap:117 ulpfec/90000");
+            line(sdp, "a=rtpmap:98 rtx/90000");
+            line(sdp, "a=fmtp:98 apt=116");
+            ssrc(sdp, "ARDAMSv0");
+        }
+        return sdp.toString();
+    }
+
+    /** @return the candidates of one side of a call */
+    public List<SignalingMessage.Candidate> candidates() {
+        List<SignalingMessage.Candidate> candidates = new ArrayList<>(candidatesPerSide);
+        int mLines = video ? 2 : 1;
+        for (int i = 0; i < candidatesPerSide; i++) {
+            int mLineIndex = i % mLines;
+            String mid = mLineIndex == 0 ? "audio" : "video";
+            candidates.add(new SignalingMessage.Candidate(mid, mLineIndex, candidate(i / mLines)));
+        }
+        return candidates;
+    }
+
+    private String candidate(int index) {
+        int foundation = random.nextInt(Integer.MAX_VALUE);
+        int port = 1024 + random.nextInt(60000);
+        String host = "10.0." + random.nextInt(256) + "." + random.nextInt(256);
+        switch (index % 3) {
+            case 0:
+                return "candidate:" + foundation + " 1 udp 2122260223 " + host + " " + port
+                        + " typ host generation 0";
+            case 1:
+                return "candidate:" + foundation + " 1 udp 1686052607 203.0.113." + random.nextInt(256) + " "
+                        + port + " typ srflx raddr " + host + " rport " + port + " generation 0";
+            default:
+                return "candidate:" + foundation + " 1 udp 41885439 198.51.100." + random.nextInt(256) + " "
+                        + port + " typ relay raddr " + host + " rport " + port + " generation 0";
+        }
+    }
+
+    private void transport(StringBuilder sdp, String mid, String ufrag, String pwd, String fingerprint,
+                           String setup) {
+        line(sdp, "c=IN IP4 0.0.0.0");
+        line(sdp, "a=rtcp:9 IN IP4 0.0.0.0");
+        line(sdp, "a=ice-ufrag:" + ufrag);
+        line(sdp, "a=ice-pwd:" + pwd);
+        line(sdp, "a=fingerprint:sha-256 " + fingerprint);
+        line(sdp, "a=setup:" + setup);
+        line(sdp, "a=mid:" + mid);
+    }
+
+    private void videoCodec(StringBuilder sdp, int payloadType, String name, int rtxPayloadType) {
+        line(sdp, "a=rtpmap:" + payloadType + " " + name + "/90000");
+        line(sdp, "a=rtcp-fb:" + payloadType + " ccm fir");
+        line(sdp, "a=rtcp-fb:" + payloadType + " nack");
+        line(sdp, "a=rtcp-fb:" + payloadType + " nack pli");
+        line(sdp, "a=rtcp-fb:" + payloadType + " goog-remb");
+        line(sdp, "a=rtpmap:" + rtxPayloadType + " rtx/90000");
+        line(sdp, "a=fmtp:" + rtxPayloadType + " apt=" + payloadType);
+    }
+
+    private void ssrc(StringBuilder sdp, String track) {
+        long ssrc = random.nextInt(Integer.MAX_VALUE);
+        String cname = token(16);
+        line(sdp, "a=ssrc:" + ssrc + " cname:" + cname);
+        line(sdp, "a=ssrc:" + ssrc + " msid:ARDAMS " + track);
+        line(sdp, "a=ssrc:" + ssrc + " mslabel:ARDAMS");
+        line(sdp, "a=ssrc:" + ssrc + " label:" + track);
+    }
+
+    private String token(int length) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return token.toString();
+    }
+
+    private String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder(95);
+        for (int i = 0; i < 32; i++) {
+            if (i > 0) {
+                fingerprint.append(':');
+            }
+            fingerprint.append(String.format("%02X", random.nextInt(256)));
+        }
+        return fingerprint.toString();
+    }
+
+    private static void line(StringBuilder sdp, String line) {
+        sdp.append(line).append("\r\n");
+    }
+}
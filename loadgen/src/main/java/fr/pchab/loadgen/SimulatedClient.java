@@ -0,0 +1,246 @@
+package fr.pchab.loadgen;
+
+import fr.pchab.webrtcclient.SignalingCodec;
+import fr.pchab.webrtcclient.SignalingMessage;
+import fr.pchab.webrtcclient.SignalingTransport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A signaling-only WebRtcClient: it speaks the same "id", "readyToStream" and
+ * "message" protocol without any PeerConnection.
+ *
+ * Clients are paired. The callee sends "init", the caller answers with an offer
+ * and its candidates, the callee with an answer and its candidates, as
+ * WebRtcClient does. The call is complete for the callee once it has the offer
+ * and all the caller candidates; it then waits the think time and calls again.
+ */
+public class SimulatedClient {
+    private final SignalingTransport transport;
+    private final SignalingScenario scenario;
+    private final LoadStats stats;
+    private final ScheduledExecutorService scheduler;
+    private final CountDownLatch ready;
+    private final boolean offerBinary;
+    private final SignalingCodec codec = new SignalingCodec();
+
+    private volatile String id;
+    private volatile boolean binary = false;
+    private volatile boolean running = false;
+    private String partnerId;
+    private boolean callee;
+    private long thinkMs;
+    private long timeoutMs;
+
+    // state of the current call, guarded by this
+    private long nextPeerSeq = 1;
+    private int callNumber = 0;
+    private long callStartNanos;
+    private boolean descriptionReceived;
+    private int candidatesReceived;
+    private ScheduledFuture<?> callTimeout;
+
+    public SimulatedClient(SignalingTransport transport, SignalingScenario scenario, LoadStats stats,
+                           ScheduledExecutorService scheduler, CountDownLatch ready, boolean offerBinary) {
+        this.transport = transport;
+        this.scenario = scenario;
+        this.stats = stats;
+        this.scheduler = scheduler;
+        this.ready = ready;
+        this.offerBinary = offerBinary;
+        transport.on(SignalingTransport.EVENT_ID, onId);
+        transport.on(SignalingTransport.EVENT_MESSAGE, onMessage);
+        transport.on(SignalingTransport.EVENT_CAPABILITIES, onCapabilities);
+    }
+
+    public void connect() {
+        transport.connect();
+        if (offerBinary) {
+            try {
+                JSONObject capabilities = new JSONObject();
+                capabilities.put(SignalingCodec.CAPABILITY_BINARY, true);
+                transport.emit(SignalingTransport.EVENT_CAPABILITIES, capabilities);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void disconnect() {
+        running = false;
+        transport.disconnect();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Pair this client with another one, the callee starts the calls.
+     */
+    public synchronized void pair(String partnerId, boolean callee, long thinkMs, long timeoutMs) {
+        this.partnerId = partnerId;
+        this.callee = callee;
+        this.thinkMs = thinkMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** Start calling, for a callee. */
+    public synchronized void start() {
+        running = true;
+        if (callee) {
+            startCall();
+        }
+    }
+
+    /** Stop starting new calls, the current one finishes. */
+    public void stop() {
+        running = false;
+    }
+
+    private synchronized void startCall() {
+        if (!running) {
+            return;
+        }
+        descriptionReceived = false;
+        candidatesReceived = 0;
+        callStartNanos = System.nanoTime();
+        final int call = ++callNumber;
+        callTimeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onCallTimeout(call);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        send(new SignalingMessage(partnerId, SignalingMessage.TYPE_INIT));
+    }
+
+    private synchronized void onCallTimeout(int call) {
+        //the call may have completed while the timeout was firing
+        if (call != callNumber || callTimeout == null) {
+            return;
+        }
+        callTimeout = null;
+        stats.onTimeout();
+        startCall();
+    }
+
+    private final Runnable nextCall = new Runnable() {
+        @Override
+        public void run() {
+            startCall();
+        }
+    };
+
+    private synchronized void onSignal(SignalingMessage message) {
+        switch (message.kind) {
+            case INIT:
+                //caller side: a new call, offer and send our candidates
+                descriptionReceived = false;
+                candidatesReceived = 0;
+                sendDescription(SignalingMessage.TYPE_OFFER);
+                break;
+            case OFFER:
+                descriptionReceived = true;
+                sendDescription(SignalingMessage.TYPE_ANSWER);
+                break;
+            case ANSWER:
+                descriptionReceived = true;
+                break;
+            case CANDIDATE:
+            case CANDIDATES:
+                candidatesReceived += message.candidates.size();
+                break;
+            default:
+                stats.onUnexpected();
+                return;
+        }
+        if (callee && callTimeout != null && descriptionReceived
+                && candidatesReceived >= scenario.getCandidatesPerSide()) {
+            callTimeout.cancel(false);
+            callTimeout = null;
+            stats.onCallCompleted(System.nanoTime() - callStartNanos);
+            scheduler.schedule(nextCall, thinkMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendDescription(String type) {
+        send(SignalingMessage.description(partnerId, type, scenario.description(type)));
+        List<SignalingMessage.Candidate> candidates = scenario.candidates();
+        for (SignalingMessage.Candidate candidate : candidates) {
+            SignalingMessage message = new SignalingMessage(partnerId, SignalingMessage.TYPE_CANDIDATE);
+            message.candidates.add(candidate);
+            send(message);
+        }
+    }
+
+    private void send(SignalingMessage message) {
+        message.peerSeq = nextPeerSeq++;
+        Object frame;
+        int bytes;
+        if (binary) {
+            byte[] encoded = codec.encode(message);
+            frame = encoded;
+            bytes = encoded.length;
+        } else {
+            try {
+                JSONObject json = SignalingCodec.toJson(message);
+                frame = json;
+                bytes = json.toString().length();
+            } catch (JSONException e) {
+                stats.onMalformed();
+                return;
+            }
+        }
+        stats.onSent(id, message.peerId, message.peerSeq, bytes);
+        transport.emit(SignalingTransport.EVENT_MESSAGE, frame);
+    }
+
+    private final SignalingTransport.Listener onId = new SignalingTransport.Listener() {
+        @Override
+        public void call(Object... args) {
+            id = (String) args[0];
+            try {
+                JSONObject message = new JSONObject();
+                message.put("name", "loadgen-" + id);
+                transport.emit(SignalingTransport.EVENT_READY_TO_STREAM, message);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            ready.countDown();
+        }
+    };
+
+    private final SignalingTransport.Listener onCapabilities = new SignalingTransport.Listener() {
+        @Override
+        public void call(Object... args) {
+            binary = ((JSONObject) args[0]).optBoolean(SignalingCodec.CAPABILITY_BINARY, false);
+        }
+    };
+
+    private final SignalingTransport.Listener onMessage = new SignalingTransport.Listener() {
+        @Override
+        public void call(Object... args) {
+            SignalingMessage message = new SignalingMessage();
+            try {
+                if (args[0] instanceof byte[]) {
+                    SignalingCodec.decode((byte[]) args[0], message);
+                } else {
+                    SignalingCodec.fromJson((JSONObject) args[0], message);
+                }
+            } catch (JSONException | IllegalArgumentException | ClassCastException e) {
+                stats.onMalformed();
+                return;
+            }
+            stats.onReceived(message.peerId, id, message.peerSeq);
+            onSignal(message);
+        }
+    };
+}
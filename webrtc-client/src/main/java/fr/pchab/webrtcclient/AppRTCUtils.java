@@ -30,22 +30,23 @@ package fr.pchab.webrtcclient;
 import android.os.Build;
 import android.util.Log;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.webrtc.MediaCodecVideoDecoder;
+import org.webrtc.MediaCodecVideoEncoder;
 
 /**
  * AppRTCUtils provides helper functions for managing thread safety.
  */
 public final class AppRTCUtils {
 
-    private static final String VIDEO_CODEC_PARAM_START_BITRATE =
-            "x-google-start-bitrate";
-    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
-
     private static final String TAG = "PCRTCClient";
 
     public static final String AUDIO_CODEC_OPUS = "opus";
     public static final String AUDIO_CODEC_ISAC = "ISAC";
+    public static final String VIDEO_CODEC_VP8 = "VP8";
+    public static final String VIDEO_CODEC_VP9 = "VP9";
+    public static final String VIDEO_CODEC_H264 = "H264";
+    /** videoCodec asking for the codec this device encodes and decodes in hardware, and preferring it. */
+    public static final String VIDEO_CODEC_AUTO = "auto";
 
     private AppRTCUtils() {}
 
@@ -103,129 +104,86 @@ public final class AppRTCUtils {
      */
     public static String setStartBitrate(String codec, boolean isVideoCodec,
                                           String sdpDescription, int bitrateKbps) {
-        String[] lines = sdpDescription.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-        // Search for codec rtpmap in format
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec + " codec");
+        SdpModel sdp = SdpModel.parse(sdpDescription);
+        if (!setStartBitrate(sdp, codec, isVideoCodec, bitrateKbps)) {
             return sdpDescription;
         }
-        Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap
-                + " at " + lines[rtpmapLineIndex]);
-
-        // Check if a=fmtp string already exist in remote SDP for this codec and
-        // update it with new bitrate parameter.
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-        codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d(TAG, "Found " +  codec + " " + lines[i]);
-                if (isVideoCodec) {
-                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE
-                            + "=" + bitrateKbps;
-                } else {
-                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE
-                            + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Update remote SDP line: " + lines[i]);
-                sdpFormatUpdated = true;
-                break;
-            }
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            // Append new a=fmtp line if no such line exist for a codec.
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet;
-                if (isVideoCodec) {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " "
-                            + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " "
-                            + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
+        return sdp.toString();
+    }
 
+    /**
+     * Set the start bitrate of a codec on a parsed description. For video codecs
+     * this is x-google-start-bitrate, for audio codecs maxaveragebitrate.
+     * @return true if the description was modified
+     */
+    public static boolean setStartBitrate(SdpModel sdp, String codec, boolean isVideoCodec,
+                                          int bitrateKbps) {
+        if (!SdpTransforms.setStartBitrate(sdp,
+                isVideoCodec ? SdpTransforms.MEDIA_VIDEO : SdpTransforms.MEDIA_AUDIO, codec, bitrateKbps)) {
+            Log.w(TAG, "No rtpmap for " + codec + " codec");
+            return false;
         }
-        return newSdpDescription.toString();
+        Log.d(TAG, "Set " + codec + " start bitrate " + bitrateKbps + " kbps");
+        return true;
     }
 
-    public static String preferCodec(
-            String sdpDescription, String codec, boolean isAudio) {
-        String[] lines = sdpDescription.split("\r\n");
-        int mLineIndex = -1;
-        String codecRtpMap = null;
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        String mediaDescription = "m=video ";
-        if (isAudio) {
-            mediaDescription = "m=audio ";
+    /**
+     * Resolve {@link #VIDEO_CODEC_AUTO}: prefer H264 or VP8 when this device has both a
+     * hardware encoder and decoder for it, then the one it can at least encode in hardware,
+     * else VP8, the cheapest software codec. Any other codec is returned as is.
+     * @param codec configured video codec
+     * @param hwAcceleration false when hardware codecs are disabled, VP8 is picked then
+     */
+    public static String selectVideoCodec(String codec, boolean hwAcceleration) {
+        if (!VIDEO_CODEC_AUTO.equals(codec)) {
+            return codec;
         }
-        for (int i = 0; (i < lines.length)
-                && (mLineIndex == -1 || codecRtpMap == null); i++) {
-            if (lines[i].startsWith(mediaDescription)) {
-                mLineIndex = i;
-                continue;
-            }
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                continue;
-            }
+        if (!hwAcceleration) {
+            return VIDEO_CODEC_VP8;
         }
-        if (mLineIndex == -1) {
-            Log.w(TAG, "No " + mediaDescription + " line, so can't prefer " + codec);
-            return sdpDescription;
+        boolean h264Encoder = MediaCodecVideoEncoder.isH264HwSupported();
+        boolean h264Decoder = MediaCodecVideoDecoder.isH264HwSupported();
+        boolean vp8Encoder = MediaCodecVideoEncoder.isVp8HwSupported();
+        boolean vp8Decoder = MediaCodecVideoDecoder.isVp8HwSupported();
+        Log.d(TAG, "Hardware video codecs: H264 encoder " + h264Encoder + ", decoder " + h264Decoder
+                + ", VP8 encoder " + vp8Encoder + ", decoder " + vp8Decoder);
+        if (h264Encoder && h264Decoder) {
+            return VIDEO_CODEC_H264;
         }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec);
+        if (vp8Encoder && vp8Decoder) {
+            return VIDEO_CODEC_VP8;
+        }
+        if (h264Encoder) {
+            return VIDEO_CODEC_H264;
+        }
+        return VIDEO_CODEC_VP8;
+    }
+
+    public static String preferCodec(
+            String sdpDescription, String codec, boolean isAudio) {
+        SdpModel sdp = SdpModel.parse(sdpDescription);
+        if (!preferCodec(sdp, codec, isAudio)) {
             return sdpDescription;
         }
-        Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap + ", prefer at "
-                + lines[mLineIndex]);
-        String[] origMLineParts = lines[mLineIndex].split(" ");
-        if (origMLineParts.length > 3) {
-            StringBuilder newMLine = new StringBuilder();
-            int origPartIndex = 0;
-            // Format is: m=<media> <port> <proto> <fmt> ...
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(codecRtpMap);
-            for (; origPartIndex < origMLineParts.length; origPartIndex++) {
-                if (!origMLineParts[origPartIndex].equals(codecRtpMap)) {
-                    newMLine.append(" ").append(origMLineParts[origPartIndex]);
-                }
-            }
-            lines[mLineIndex] = newMLine.toString();
-            Log.d(TAG, "Change media description: " + lines[mLineIndex]);
-        } else {
-            Log.e(TAG, "Wrong SDP media description format: " + lines[mLineIndex]);
+        return sdp.toString();
+    }
+
+    /**
+     * Move the payload type of a codec to the front of the audio or video m-line.
+     * @return true if the description was modified
+     */
+    public static boolean preferCodec(SdpModel sdp, String codec, boolean isAudio) {
+        String mediaDescription = isAudio ? SdpTransforms.MEDIA_AUDIO : SdpTransforms.MEDIA_VIDEO;
+        if (sdp.getMediaSection(mediaDescription) == null) {
+            Log.w(TAG, "No m=" + mediaDescription + " line, so can't prefer " + codec);
+            return false;
         }
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (String line : lines) {
-            newSdpDescription.append(line).append("\r\n");
+        if (!SdpTransforms.preferCodec(sdp, mediaDescription, codec)) {
+            Log.w(TAG, "No rtpmap for " + codec);
+            return false;
         }
-        return newSdpDescription.toString();
+        Log.d(TAG, "Prefer " + codec + " at m=" + mediaDescription);
+        return true;
     }
 
 }
@@ -0,0 +1,114 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the uplink bandwidth between the peer connections of a mesh call.
+ *
+ * Every peer connection sends the same local stream, so they compete for the
+ * same uplink. {@link #allocate(int, Collection)} divides the total estimate
+ * evenly between the active peers and reports a new cap only when it moved by
+ * more than the change threshold, so that a renegotiation is not triggered by
+ * every fluctuation of the estimate. With a single active peer nothing is
+ * capped and the bandwidth estimator of that connection is left alone.
+ *
+ * The estimate of a connection never exceeds its cap, so a cap equal to the
+ * share could only stay flat or fall. Caps are the share times a headroom
+ * factor: a connection that uses its whole cap raises the estimate, and the
+ * caps grow by up to that factor on every allocation until the uplink is full.
+ */
+public class BandwidthAllocator {
+
+    /**
+     * Notified when the cap of a peer changes.
+     */
+    public interface Listener {
+        /**
+         * @param peerId remote id
+         * @param bitrateKbps new cap, 0 to remove the cap
+         */
+        void onAllocationChanged(String peerId, int bitrateKbps);
+    }
+
+    private final int minBitrateKbps;
+    private final float headroom;
+    private final float changeThreshold;
+    private final Listener listener;
+    // peer id -> current cap in kbps, only for capped peers
+    private final HashMap<String, Integer> allocations = new HashMap<>();
+
+    /**
+     * @param minBitrateKbps lower bound of a cap
+     * @param headroom cap to share ratio, at least 1, e.g. 1.5 to let a connection probe 50% above its share
+     * @param changeThreshold relative change, e.g. 0.2 for 20%, needed to report a new cap
+     * @param listener notified of cap changes, outside of any lock
+     */
+    public BandwidthAllocator(int minBitrateKbps, float headroom, float changeThreshold, Listener listener) {
+        if (headroom < 1) {
+            throw new IllegalArgumentException("Headroom below 1: " + headroom);
+        }
+        this.minBitrateKbps = minBitrateKbps;
+        this.headroom = headroom;
+        this.changeThreshold = changeThreshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Divide the uplink estimate between the active peers.
+     * @param uplinkKbps total uplink estimate, 0 or less if unknown
+     * @param activePeerIds peers currently sending the local stream
+     */
+    public void allocate(int uplinkKbps, Collection<String> activePeerIds) {
+        List<String> changedPeers = new ArrayList<>();
+        List<Integer> changedBitrates = new ArrayList<>();
+        synchronized (this) {
+            // forget peers that went away, and every cap if there is no mesh any more
+            boolean mesh = activePeerIds.size() > 1;
+            Iterator<Map.Entry<String, Integer>> iterator = allocations.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Integer> entry = iterator.next();
+                if (!mesh || !activePeerIds.contains(entry.getKey())) {
+                    iterator.remove();
+                    if (activePeerIds.contains(entry.getKey())) {
+                        changedPeers.add(entry.getKey());
+                        changedBitrates.add(0);
+                    }
+                }
+            }
+            if (mesh && uplinkKbps > 0) {
+                int cap = Math.max(minBitrateKbps, (int) (uplinkKbps * headroom / activePeerIds.size()));
+                for (String peerId : activePeerIds) {
+                    Integer current = allocations.get(peerId);
+                    if (current == null || Math.abs(cap - current) > current * changeThreshold) {
+                        allocations.put(peerId, cap);
+                        changedPeers.add(peerId);
+                        changedBitrates.add(cap);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < changedPeers.size(); i++) {
+            listener.onAllocationChanged(changedPeers.get(i), changedBitrates.get(i));
+        }
+    }
+
+    /**
+     * @return current cap of the peer in kbps, 0 if it is not capped
+     */
+    public synchronized int getAllocation(String peerId) {
+        Integer allocation = allocations.get(peerId);
+        return allocation == null ? 0 : allocation;
+    }
+
+    /**
+     * Forget a peer that left the call.
+     */
+    public synchronized void remove(String peerId) {
+        allocations.remove(peerId);
+    }
+}
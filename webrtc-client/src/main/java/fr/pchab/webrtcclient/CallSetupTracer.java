@@ -0,0 +1,203 @@
+package fr.pchab.webrtcclient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timestamps the steps of call setup, per remote peer, with the monotonic clock.
+ *
+ * A trace starts with the first {@link Event#INIT}, {@link Event#CREATE_OFFER} or
+ * {@link Event#CREATE_ANSWER} seen for a peer and completes on {@link Event#CONNECTED}.
+ * Other events of a peer without a trace, e.g. a candidate or an answer after the
+ * trace completed, are ignored so they do not open a trace that never completes.
+ * Completed traces are handed to the listeners and aggregated into histograms of
+ * time-to-media and of the offset of every event from the start, so percentiles
+ * can be compared across releases.
+ *
+ * This class has no Android dependency so it can be used on a plain JVM.
+ */
+public class CallSetupTracer {
+
+    /**
+     * Steps of call setup, in the order they happen on either side of a call.
+     */
+    public enum Event {
+        /** "init" sent by the callee or received by the caller. */
+        INIT,
+        /** CreateOfferCommand started on the caller. */
+        CREATE_OFFER,
+        /** CreateAnswerCommand started on the callee, i.e. the offer was received. */
+        CREATE_ANSWER,
+        /** SetRemoteSDPCommand started on the caller, i.e. the answer was received. */
+        SET_REMOTE_ANSWER,
+        /** First local ICE candidate gathered. */
+        FIRST_CANDIDATE,
+        /** ICE connection state reached CONNECTED. */
+        CONNECTED
+    }
+
+    /**
+     * Notified of every completed trace, on the thread that reported CONNECTED.
+     */
+    public interface Listener {
+        void onCallSetupTraced(String peerId, CallTrace trace);
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private final ConcurrentHashMap<String, CallTrace> traces = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram timeToMedia = new LatencyHistogram();
+    private final LatencyHistogram[] eventOffsets = new LatencyHistogram[EVENTS.length];
+    private final AtomicLong abandonedTraces = new AtomicLong();
+
+    public CallSetupTracer() {
+        for (int i = 0; i < eventOffsets.length; i++) {
+            eventOffsets[i] = new LatencyHistogram();
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record an event for a peer. Only the first occurrence of an event is kept.
+     */
+    public void mark(String peerId, Event event) {
+        long now = System.nanoTime();
+        CallTrace trace = traces.get(peerId);
+        if (trace == null) {
+            if (!startsTrace(event)) {
+                // nothing traced for this peer, e.g. an ICE restart after the trace completed
+                return;
+            }
+            CallTrace created = new CallTrace(now);
+            trace = traces.putIfAbsent(peerId, created);
+            if (trace == null) {
+                trace = created;
+            }
+        }
+        if (!trace.mark(event, now) || event != Event.CONNECTED) {
+            return;
+        }
+        if (traces.remove(peerId, trace)) {
+            timeToMedia.record(trace.getTimeToMediaNanos());
+            for (Event traced : EVENTS) {
+                long offset = trace.getOffsetNanos(traced);
+                if (offset >= 0) {
+                    eventOffsets[traced.ordinal()].record(offset);
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.onCallSetupTraced(peerId, trace);
+            }
+        }
+    }
+
+    private static boolean startsTrace(Event event) {
+        return event == Event.INIT || event == Event.CREATE_OFFER || event == Event.CREATE_ANSWER;
+    }
+
+    /**
+     * Forget the trace of a peer that went away before being connected.
+     */
+    public void discard(String peerId) {
+        if (traces.remove(peerId) != null) {
+            abandonedTraces.incrementAndGet();
+        }
+    }
+
+    /** @return histogram of the time from the first event to CONNECTED */
+    public LatencyHistogram.Snapshot getTimeToMedia() {
+        return timeToMedia.snapshot();
+    }
+
+    /** @return histogram of the time from the first event to the given event */
+    public LatencyHistogram.Snapshot getEventOffset(Event event) {
+        return eventOffsets[event.ordinal()].snapshot();
+    }
+
+    /** @return number of traces discarded before completion */
+    public long getAbandonedTraces() {
+        return abandonedTraces.get();
+    }
+
+    /**
+     * Timestamps of one call setup.
+     */
+    public static final class CallTrace {
+        private final long startNanos;
+        private final long[] eventNanos = new long[EVENTS.length];
+
+        private CallTrace(long startNanos) {
+            this.startNanos = startNanos;
+            for (int i = 0; i < eventNanos.length; i++) {
+                eventNanos[i] = -1;
+            }
+        }
+
+        private synchronized boolean mark(Event event, long nanos) {
+            if (eventNanos[event.ordinal()] >= 0) {
+                return false;
+            }
+            eventNanos[event.ordinal()] = nanos;
+            return true;
+        }
+
+        /** @return System.nanoTime() of the first event */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /** @return time from the first event to the given one, -1 if it was not seen */
+        public synchronized long getOffsetNanos(Event event) {
+            long nanos = eventNanos[event.ordinal()];
+            return nanos < 0 ? -1 : nanos - startNanos;
+        }
+
+        /**
+         * @return time from the previous event seen to the given one, i.e. the duration
+         * of the stage ending with this event, -1 if it was not seen
+         */
+        public synchronized long getStageNanos(Event event) {
+            long nanos = eventNanos[event.ordinal()];
+            if (nanos < 0) {
+                return -1;
+            }
+            long previous = startNanos;
+            for (int i = event.ordinal() - 1; i >= 0; i--) {
+                if (eventNanos[i] >= 0) {
+                    previous = eventNanos[i];
+                    break;
+                }
+            }
+            return nanos - previous;
+        }
+
+        /** @return time from the first event to CONNECTED, -1 if not connected */
+        public long getTimeToMediaNanos() {
+            return getOffsetNanos(Event.CONNECTED);
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Event event : EVENTS) {
+                long offset = getOffsetNanos(event);
+                if (offset >= 0) {
+                    if (builder.length() > 0) {
+                        builder.append(", ");
+                    }
+                    builder.append(event).append(" +").append(offset / 1000000).append("ms");
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
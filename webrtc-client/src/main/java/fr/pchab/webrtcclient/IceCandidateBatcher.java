@@ -0,0 +1,108 @@
+package fr.pchab.webrtcclient;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Coalesces local ICE candidates so that a gathering burst goes out as one
+ * signaling message instead of one message per candidate.
+ *
+ * A batch is sent when the window after its first candidate expires, when it
+ * reaches the maximum size, or when {@link #flush()} is called because
+ * gathering has completed.
+ */
+class IceCandidateBatcher {
+
+    /**
+     * Receives every batch, in gathering order.
+     */
+    interface Sender {
+        void send(List<IceCandidate> candidates);
+    }
+
+    /**
+     * Runs the window timer, e.g. on the peer connection executor.
+     */
+    interface Scheduler {
+        Future<?> schedule(Runnable task, long delayMs);
+    }
+
+    private final Scheduler scheduler;
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final Sender sender;
+    private ArrayList<IceCandidate> pending = new ArrayList<>();
+    // held from taking a batch to sending it, so batches taken by the timer and by add() go out in order
+    private final Object sendLock = new Object();
+    private Future<?> flushTimer;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param scheduler runs the window timer
+     * @param windowMs time to wait for more candidates after the first one of a batch
+     * @param maxBatchSize batch size that triggers an immediate send
+     * @param sender receives the batches
+     */
+    IceCandidateBatcher(Scheduler scheduler, long windowMs, int maxBatchSize, Sender sender) {
+        this.scheduler = scheduler;
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.sender = sender;
+    }
+
+    void add(IceCandidate candidate) {
+        boolean full;
+        synchronized (this) {
+            pending.add(candidate);
+            if (pending.size() == 1) {
+                flushTimer = scheduler.schedule(flushTask, windowMs);
+            }
+            full = pending.size() >= maxBatchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the candidates collected so far, if any, and stop the timer.
+     */
+    void flush() {
+        synchronized (sendLock) {
+            List<IceCandidate> batch;
+            synchronized (this) {
+                cancelTimer();
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            sender.send(batch);
+        }
+    }
+
+    /**
+     * Drop the collected candidates and stop the timer.
+     */
+    synchronized void cancel() {
+        cancelTimer();
+        pending.clear();
+    }
+
+    private void cancelTimer() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+    }
+}
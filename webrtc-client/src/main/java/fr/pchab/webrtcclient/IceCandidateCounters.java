@@ -0,0 +1,44 @@
+package fr.pchab.webrtcclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of remote ICE candidates that arrived before the remote description was set.
+ */
+public class IceCandidateCounters {
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    void onBuffered() {
+        buffered.incrementAndGet();
+    }
+
+    void onFlushed(int count) {
+        flushed.addAndGet(count);
+    }
+
+    void onDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    /** @return number of candidates queued because the remote description was not set yet */
+    public long getBuffered() {
+        return buffered.get();
+    }
+
+    /** @return number of queued candidates added once the remote description was set */
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    /** @return number of queued candidates discarded, because the queue was full or the peer went away */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "buffered=" + getBuffered() + " flushed=" + getFlushed() + " dropped=" + getDropped();
+    }
+}
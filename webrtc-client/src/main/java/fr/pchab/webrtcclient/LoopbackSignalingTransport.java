@@ -0,0 +1,227 @@
+package fr.pchab.webrtcclient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process {@link SignalingTransport}.
+ *
+ * Transports created from the same {@link Hub} talk to each other the way
+ * clients of a ProjectRTC server do, without network or server, e.g. to connect
+ * two {@link WebRtcClient}s in one process and measure the signaling path.
+ */
+public class LoopbackSignalingTransport implements SignalingTransport {
+
+    /**
+     * Stand-in for the signaling server: gives every transport an id and relays
+     * "message" events to their recipient. Events are delivered in order on a
+     * single hub thread, as a socket.io client would receive them on its event thread.
+     * The hub accepts {@link SignalingCodec} binary frames unless told otherwise and
+     * acknowledges numbered messages as soon as they are relayed.
+     */
+    public static class Hub {
+        private final ExecutorService deliveryThread = Executors.newSingleThreadExecutor();
+        private final ConcurrentHashMap<String, LoopbackSignalingTransport> clients = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicLong relayedMessages = new AtomicLong();
+        private final AtomicLong droppedMessages = new AtomicLong();
+        private final SignalingCodec codec = new SignalingCodec();
+        private volatile boolean binarySignaling = true;
+
+        /** Accept or refuse binary frames when transports offer them. */
+        public void setBinarySignaling(boolean binarySignaling) {
+            this.binarySignaling = binarySignaling;
+        }
+
+        /** @return a new transport connected to this hub */
+        public LoopbackSignalingTransport createTransport() {
+            return new LoopbackSignalingTransport(this);
+        }
+
+        /** @return number of "message" events delivered to a recipient */
+        public long getRelayedMessages() {
+            return relayedMessages.get();
+        }
+
+        /** @return number of "message" events without a known recipient */
+        public long getDroppedMessages() {
+            return droppedMessages.get();
+        }
+
+        /** Stop the hub thread. Pending events are discarded. */
+        public void shutdown() {
+            deliveryThread.shutdownNow();
+        }
+
+        private void connect(final LoopbackSignalingTransport client) {
+            final String id = "loopback-" + nextId.incrementAndGet();
+            client.id = id;
+            clients.put(id, client);
+            deliver(client, EVENT_ID, id);
+        }
+
+        private void disconnect(LoopbackSignalingTransport client) {
+            if (client.id != null) {
+                clients.remove(client.id);
+            }
+        }
+
+        private void answerCapabilities(LoopbackSignalingTransport client) {
+            try {
+                JSONObject capabilities = new JSONObject();
+                capabilities.put(SignalingCodec.CAPABILITY_BINARY, binarySignaling);
+                deliver(client, EVENT_CAPABILITIES, capabilities);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void relay(LoopbackSignalingTransport sender, Object message) {
+            if (message instanceof byte[]) {
+                relayFrame(sender, (byte[]) message);
+                return;
+            }
+            try {
+                JSONObject outgoing = (JSONObject) message;
+                LoopbackSignalingTransport recipient = clients.get(outgoing.getString("to"));
+                if (recipient == null) {
+                    droppedMessages.incrementAndGet();
+                    return;
+                }
+                JSONObject incoming = new JSONObject();
+                incoming.put("from", sender.id);
+                incoming.put("type", outgoing.getString("type"));
+                long peerSeq = outgoing.optLong("peerSeq", 0);
+                if (peerSeq > 0) {
+                    incoming.put("peerSeq", peerSeq);
+                }
+                long peerEpoch = outgoing.optLong("peerEpoch", 0);
+                if (peerEpoch > 0) {
+                    incoming.put("peerEpoch", peerEpoch);
+                }
+                Object payload = outgoing.opt("payload");
+                if (payload != null) {
+                    incoming.put("payload", payload);
+                }
+                relayedMessages.incrementAndGet();
+                deliver(recipient, EVENT_MESSAGE, incoming);
+                acknowledge(sender, outgoing.optLong("seq", 0));
+            } catch (JSONException e) {
+                droppedMessages.incrementAndGet();
+                e.printStackTrace();
+            }
+        }
+
+        // the frame names the recipient, it is rewritten to name the sender
+        private void relayFrame(LoopbackSignalingTransport sender, byte[] frame) {
+            SignalingMessage message;
+            try {
+                message = SignalingCodec.decode(frame, new SignalingMessage());
+            } catch (IllegalArgumentException e) {
+                droppedMessages.incrementAndGet();
+                e.printStackTrace();
+                return;
+            }
+            LoopbackSignalingTransport recipient = clients.get(message.peerId);
+            if (recipient == null) {
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            message.peerId = sender.id;
+            long seq = message.seq;
+            // the session seq is only meaningful to the sender, the JSON relay drops it too
+            message.seq = 0;
+            relayedMessages.incrementAndGet();
+            deliver(recipient, EVENT_MESSAGE, codec.encode(message));
+            acknowledge(sender, seq);
+        }
+
+        private void acknowledge(LoopbackSignalingTransport sender, long seq) {
+            if (seq <= 0) {
+                return;
+            }
+            try {
+                JSONObject ack = new JSONObject();
+                ack.put("seq", seq);
+                deliver(sender, EVENT_ACK, ack);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void deliver(final LoopbackSignalingTransport recipient, final String event, final Object... args) {
+            deliveryThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recipient.dispatch(event, args);
+                }
+            });
+        }
+    }
+
+    private final Hub hub;
+    private final Map<String, List<Listener>> listeners = new HashMap<>();
+    private volatile String id;
+
+    private LoopbackSignalingTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    /** @return the id given by the hub, null before the transport is connected */
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public synchronized void on(String event, Listener listener) {
+        List<Listener> eventListeners = listeners.get(event);
+        if (eventListeners == null) {
+            eventListeners = new ArrayList<>(1);
+            listeners.put(event, eventListeners);
+        }
+        eventListeners.add(listener);
+    }
+
+    @Override
+    public void emit(String event, Object... args) {
+        if (EVENT_MESSAGE.equals(event) && args.length > 0) {
+            hub.relay(this, args[0]);
+        } else if (EVENT_CAPABILITIES.equals(event)) {
+            hub.answerCapabilities(this);
+        }
+    }
+
+    @Override
+    public void connect() {
+        hub.connect(this);
+    }
+
+    @Override
+    public void disconnect() {
+        hub.disconnect(this);
+    }
+
+    private void dispatch(String event, Object... args) {
+        List<Listener> eventListeners;
+        synchronized (this) {
+            eventListeners = listeners.get(event);
+            if (eventListeners == null) {
+                return;
+            }
+            eventListeners = new ArrayList<>(eventListeners);
+        }
+        for (Listener listener : eventListeners) {
+            listener.call(args);
+        }
+    }
+}
@@ -31,19 +31,104 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Looper based executor class.
+ *
+ * Every task is timed: the delay between execute() and the start of the task
+ * (queue latency) and its run time go to histograms, and tasks running longer
+ * than the slow task threshold are reported with their origin. Read the
+ * numbers with {@link #getMetrics()}.
+ *
+ * execute() does not lock: tasks go to a lock-free queue and the looper is
+ * only woken up, with a single Handler message, when the queue was idle.
+ * Delayed work goes through {@link #schedule(Runnable, long)} so that timers
+ * run on the same thread as everything else.
+ *
+ * Tasks are queued in one of two {@link Lane}s. Negotiation tasks always run
+ * before background tasks, except that a background task is let through after
+ * a run of negotiation tasks or once it has waited too long, so that
+ * housekeeping is delayed but never starved.
  */
 public class LooperExecutor extends Thread implements Executor {
   private static final String TAG = "LooperExecutor";
+  private static final long DEFAULT_SLOW_TASK_THRESHOLD_MS = 50;
+  // Tasks run per Handler message before yielding to the other looper messages.
+  private static final int MAX_TASKS_PER_DRAIN = 64;
+  // Negotiation tasks run in a row before a waiting background task is let through.
+  private static final int MAX_CONSECUTIVE_NEGOTIATION_TASKS = 16;
+  // Wait after which a background task runs ahead of negotiation tasks.
+  private static final long MAX_BACKGROUND_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+  /**
+   * Priority lane of a task.
+   */
+  public enum Lane {
+    /**
+     * Call critical work: SDP and ICE handling, offers and answers, and peer
+     * teardown, which must stay in order with the negotiation of the peer.
+     */
+    NEGOTIATION,
+    /** Housekeeping: stats polling, pre-warming, logging. */
+    BACKGROUND
+  }
+
   // Object used to signal that looper thread has started and Handler instance
   // associated with looper thread has been allocated.
   private final Object looperStartedEvent = new Object();
-  private Handler handler = null;
-  private boolean running = false;
-  private long threadId;
+  private volatile Handler handler = null;
+  private volatile boolean running = false;
+  private volatile long threadId;
+  private final LaneQueue[] lanes = new LaneQueue[Lane.values().length];
+  // True while a drain message is posted and has not started draining yet.
+  private final AtomicBoolean drainPosted = new AtomicBoolean(false);
+  // Negotiation tasks run since the last background task, only used on the looper thread.
+  private int consecutiveNegotiationTasks = 0;
+  private final Runnable drainTask = new Runnable() {
+    @Override
+    public void run() {
+      drain(MAX_TASKS_PER_DRAIN);
+    }
+  };
+
+  private final LatencyHistogram queueLatency = new LatencyHistogram();
+  private final LatencyHistogram runTime = new LatencyHistogram();
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong slowTaskCount = new AtomicLong();
+  private volatile long slowTaskThresholdNanos =
+      TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_TASK_THRESHOLD_MS);
+  private volatile boolean captureCallSite = false;
+  private volatile SlowTaskListener slowTaskListener = null;
+
+  /**
+   * Notified, on the looper thread, of every task running longer than the threshold.
+   */
+  public interface SlowTaskListener {
+    /**
+     * @param origin class of the task, followed by the execute() call site when
+     *               call site capture is enabled
+     * @param queueNanos time spent waiting in the queue
+     * @param runNanos run time of the task
+     */
+    void onSlowTask(String origin, long queueNanos, long runNanos);
+  }
+
+  public LooperExecutor() {
+    for (Lane lane : Lane.values()) {
+      lanes[lane.ordinal()] = new LaneQueue(lane);
+    }
+  }
 
   @Override
   public void run() {
@@ -85,6 +170,8 @@ public class LooperExecutor extends Thread implements Executor {
     handler.post(new Runnable() {
       @Override
       public void run() {
+        // Run what was accepted before the stop request, whatever its lane.
+        drain(Integer.MAX_VALUE);
         Looper.myLooper().quit();
         Log.d(TAG, "Looper thread finished.");
       }
@@ -96,17 +183,418 @@ public class LooperExecutor extends Thread implements Executor {
     return (Thread.currentThread().getId() == threadId);
   }
 
+  /**
+   * Run a task in the negotiation lane.
+   */
   @Override
-  public synchronized void execute(final Runnable runnable) {
+  public void execute(final Runnable runnable) {
+    execute(runnable, Lane.NEGOTIATION);
+  }
+
+  /**
+   * Run a task in the given lane. A task executed from the looper thread runs inline.
+   */
+  public void execute(final Runnable runnable, Lane lane) {
     if (!running) {
       Log.w(TAG, "Running looper executor without calling requestStart()");
       return;
     }
     if (Thread.currentThread().getId() == threadId) {
-      runnable.run();
+      runTimed(runnable, callSite(), 0, lanes[lane.ordinal()]);
     } else {
-      handler.post(runnable);
+      enqueue(new TimedTask(runnable, callSite(), System.nanoTime(), lanes[lane.ordinal()]));
+    }
+  }
+
+  /**
+   * Queue a task in the given lane, even from the looper thread. Use it to yield to
+   * the tasks already queued instead of running inline.
+   */
+  public void post(final Runnable runnable, Lane lane) {
+    if (!running) {
+      Log.w(TAG, "Posting to looper executor without calling requestStart()");
+      return;
+    }
+    enqueue(new TimedTask(runnable, callSite(), System.nanoTime(), lanes[lane.ordinal()]));
+  }
+
+  /**
+   * Run a task in the negotiation lane after a delay.
+   * @see #schedule(Runnable, long, Lane)
+   */
+  public ScheduledTask schedule(Runnable runnable, long delayMs) {
+    return schedule(runnable, delayMs, Lane.NEGOTIATION);
+  }
+
+  /**
+   * Run a task on the looper thread after a delay. When due, the task is queued
+   * in its lane like any other task.
+   * @param runnable task to run
+   * @param delayMs delay in milliseconds
+   * @param lane lane the task is queued in when due
+   * @return future used to cancel the task or wait for it, null if the executor is not running
+   */
+  public ScheduledTask schedule(Runnable runnable, long delayMs, Lane lane) {
+    if (!running) {
+      Log.w(TAG, "Scheduling on looper executor without calling requestStart()");
+      return null;
+    }
+    ScheduledTask task = new ScheduledTask(runnable, callSite(),
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs), lanes[lane.ordinal()]);
+    handler.postDelayed(task.timer, delayMs);
+    return task;
+  }
+
+  private void enqueue(TimedTask task) {
+    task.lane.onQueued();
+    int depth = queueDepth.incrementAndGet();
+    int max = maxQueueDepth.get();
+    while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+      max = maxQueueDepth.get();
+    }
+    task.lane.tasks.offer(task);
+    if (drainPosted.compareAndSet(false, true)) {
+      handler.post(drainTask);
+    }
+  }
+
+  private void drain(int maxTasks) {
+    // Clear the flag before polling: a task offered from now on posts a new drain.
+    drainPosted.set(false);
+    for (int i = 0; i < maxTasks; i++) {
+      TimedTask task = nextTask();
+      if (task == null) {
+        return;
+      }
+      task.run();
+    }
+    if (hasQueuedTasks() && drainPosted.compareAndSet(false, true)) {
+      handler.post(drainTask);
+    }
+  }
+
+  private TimedTask nextTask() {
+    LaneQueue negotiation = lanes[Lane.NEGOTIATION.ordinal()];
+    LaneQueue background = lanes[Lane.BACKGROUND.ordinal()];
+    TimedTask waiting = background.tasks.peek();
+    if (waiting != null
+        && (consecutiveNegotiationTasks >= MAX_CONSECUTIVE_NEGOTIATION_TASKS
+            || System.nanoTime() - waiting.enqueueNanos > MAX_BACKGROUND_WAIT_NANOS)) {
+      consecutiveNegotiationTasks = 0;
+      return background.tasks.poll();
+    }
+    TimedTask task = negotiation.tasks.poll();
+    if (task != null) {
+      consecutiveNegotiationTasks++;
+      return task;
+    }
+    consecutiveNegotiationTasks = 0;
+    return background.tasks.poll();
+  }
+
+  private boolean hasQueuedTasks() {
+    for (LaneQueue lane : lanes) {
+      if (!lane.tasks.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param thresholdMs run time above which a task is reported as slow
+   */
+  public void setSlowTaskThresholdMs(long thresholdMs) {
+    slowTaskThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+  }
+
+  /**
+   * Record the execute() call site of every task so that slow tasks can be traced
+   * back to their caller. This costs a stack walk per task, keep it for debugging.
+   */
+  public void setCaptureCallSite(boolean capture) {
+    captureCallSite = capture;
+  }
+
+  public void setSlowTaskListener(SlowTaskListener listener) {
+    slowTaskListener = listener;
+  }
+
+  /** @return a copy of the task metrics collected since the last reset */
+  public Metrics getMetrics() {
+    LaneMetrics[] laneMetrics = new LaneMetrics[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      laneMetrics[i] = lanes[i].snapshot();
+    }
+    return new Metrics(queueLatency.snapshot(), runTime.snapshot(),
+        queueDepth.get(), maxQueueDepth.get(), slowTaskCount.get(), laneMetrics);
+  }
+
+  /** Clear the histograms, the maximum depths and the slow task count. */
+  public void resetMetrics() {
+    queueLatency.reset();
+    runTime.reset();
+    maxQueueDepth.set(queueDepth.get());
+    slowTaskCount.set(0);
+    for (LaneQueue lane : lanes) {
+      lane.reset();
+    }
+  }
+
+  private String callSite() {
+    if (!captureCallSite) {
+      return null;
+    }
+    // Skip the frames of this class to find the caller of execute() or schedule().
+    for (StackTraceElement element : new Throwable().getStackTrace()) {
+      if (!element.getClassName().startsWith(LooperExecutor.class.getName())) {
+        return element.toString();
+      }
+    }
+    return null;
+  }
+
+  private void runTimed(Runnable runnable, String callSite, long queueNanos, LaneQueue lane) {
+    long start = System.nanoTime();
+    try {
+      runnable.run();
+    } finally {
+      long runNanos = System.nanoTime() - start;
+      runTime.record(runNanos);
+      lane.runTime.record(runNanos);
+      if (runNanos > slowTaskThresholdNanos) {
+        slowTaskCount.incrementAndGet();
+        String origin = runnable.getClass().getName();
+        if (callSite != null) {
+          origin += " from " + callSite;
+        }
+        Log.w(TAG, "Slow " + lane.lane + " task " + origin + ": ran " + runNanos / 1000000
+            + " ms after waiting " + queueNanos / 1000000 + " ms");
+        SlowTaskListener listener = slowTaskListener;
+        if (listener != null) {
+          listener.onSlowTask(origin, queueNanos, runNanos);
+        }
+      }
     }
   }
 
+  /**
+   * Queue and metrics of one lane.
+   */
+  private static final class LaneQueue {
+    private final Lane lane;
+    private final ConcurrentLinkedQueue<TimedTask> tasks = new ConcurrentLinkedQueue<>();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    private LaneQueue(Lane lane) {
+      this.lane = lane;
+    }
+
+    private void onQueued() {
+      int current = depth.incrementAndGet();
+      int max = maxDepth.get();
+      while (current > max && !maxDepth.compareAndSet(max, current)) {
+        max = maxDepth.get();
+      }
+    }
+
+    private LaneMetrics snapshot() {
+      return new LaneMetrics(lane, queueLatency.snapshot(), runTime.snapshot(),
+          depth.get(), maxDepth.get());
+    }
+
+    private void reset() {
+      queueLatency.reset();
+      runTime.reset();
+      maxDepth.set(depth.get());
+    }
+  }
+
+  private class TimedTask implements Runnable {
+    private final Runnable runnable;
+    private final String callSite;
+    private final long enqueueNanos;
+    private final LaneQueue lane;
+
+    private TimedTask(Runnable runnable, String callSite, long enqueueNanos, LaneQueue lane) {
+      this.runnable = runnable;
+      this.callSite = callSite;
+      this.enqueueNanos = enqueueNanos;
+      this.lane = lane;
+    }
+
+    @Override
+    public void run() {
+      queueDepth.decrementAndGet();
+      lane.depth.decrementAndGet();
+      long queueNanos = System.nanoTime() - enqueueNanos;
+      queueLatency.record(queueNanos);
+      lane.queueLatency.record(queueNanos);
+      runTimed(runnable, callSite, queueNanos, lane);
+    }
+  }
+
+  /**
+   * Delayed task returned by {@link #schedule(Runnable, long, Lane)}.
+   */
+  public final class ScheduledTask implements Future<Void> {
+    private final Runnable runnable;
+    private final String callSite;
+    private final long dueNanos;
+    private final LaneQueue lane;
+    private final CountDownLatch done = new CountDownLatch(1);
+    // 0 pending, 1 started, 2 cancelled
+    private final AtomicInteger state = new AtomicInteger(0);
+
+    // Runs the task unless it was cancelled while waiting in its lane.
+    private final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        if (!state.compareAndSet(0, 1)) {
+          return;
+        }
+        try {
+          runnable.run();
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+
+    // Posted to the Handler, queues the task in its lane when due.
+    private final Runnable timer = new Runnable() {
+      @Override
+      public void run() {
+        if (state.get() == 0) {
+          enqueue(new TimedTask(task, callSite, dueNanos, lane));
+        }
+      }
+    };
+
+    private ScheduledTask(Runnable runnable, String callSite, long dueNanos, LaneQueue lane) {
+      this.runnable = runnable;
+      this.callSite = callSite;
+      this.dueNanos = dueNanos;
+      this.lane = lane;
+    }
+
+    /**
+     * Cancel the task if it has not started yet. A started task is never interrupted.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!state.compareAndSet(0, 2)) {
+        return false;
+      }
+      Handler current = handler;
+      if (current != null) {
+        current.removeCallbacks(timer);
+      }
+      done.countDown();
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return state.get() == 2;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException {
+      done.await();
+      if (isCancelled()) {
+        throw new CancellationException();
+      }
+      return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      if (isCancelled()) {
+        throw new CancellationException();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Snapshot of the metrics of one lane.
+   */
+  public static final class LaneMetrics {
+    public final Lane lane;
+    public final LatencyHistogram.Snapshot queueLatency;
+    public final LatencyHistogram.Snapshot runTime;
+    public final int queueDepth;
+    public final int maxQueueDepth;
+
+    private LaneMetrics(Lane lane, LatencyHistogram.Snapshot queueLatency,
+        LatencyHistogram.Snapshot runTime, int queueDepth, int maxQueueDepth) {
+      this.lane = lane;
+      this.queueLatency = queueLatency;
+      this.runTime = runTime;
+      this.queueDepth = queueDepth;
+      this.maxQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+      return lane + ": queue latency [" + queueLatency + "], run time [" + runTime
+          + "], depth " + queueDepth + " (max " + maxQueueDepth + ")";
+    }
+  }
+
+  /**
+   * Snapshot of the executor metrics.
+   */
+  public static final class Metrics {
+    /** Delay between execute(), or the due time of a scheduled task, and the start of the task. */
+    public final LatencyHistogram.Snapshot queueLatency;
+    /** Run time of the tasks, including the ones run inline on the looper thread. */
+    public final LatencyHistogram.Snapshot runTime;
+    /** Tasks posted and not started yet. */
+    public final int queueDepth;
+    /** Highest queue depth seen. */
+    public final int maxQueueDepth;
+    /** Tasks that ran longer than the slow task threshold. */
+    public final long slowTasks;
+    private final LaneMetrics[] lanes;
+
+    private Metrics(LatencyHistogram.Snapshot queueLatency, LatencyHistogram.Snapshot runTime,
+        int queueDepth, int maxQueueDepth, long slowTasks, LaneMetrics[] lanes) {
+      this.queueLatency = queueLatency;
+      this.runTime = runTime;
+      this.queueDepth = queueDepth;
+      this.maxQueueDepth = maxQueueDepth;
+      this.slowTasks = slowTasks;
+      this.lanes = lanes;
+    }
+
+    /** @return the metrics of one lane */
+    public LaneMetrics getLane(Lane lane) {
+      return lanes[lane.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("queue latency [").append(queueLatency).append("], run time [")
+          .append(runTime).append("], depth ").append(queueDepth)
+          .append(" (max ").append(maxQueueDepth).append("), slow tasks ").append(slowTasks);
+      for (LaneMetrics lane : lanes) {
+        builder.append("; ").append(lane);
+      }
+      return builder.toString();
+    }
+  }
 }
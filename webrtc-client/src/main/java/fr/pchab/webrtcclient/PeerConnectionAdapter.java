@@ -0,0 +1,116 @@
+package fr.pchab.webrtcclient;
+
+import java.util.List;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+import org.webrtc.StatsObserver;
+
+/**
+ * The part of {@link PeerConnection} used by {@link WebRtcClient}, so that the
+ * native peer connection can be replaced, e.g. by a stub when replaying recorded
+ * signaling with {@link SignalingReplay}.
+ */
+public interface PeerConnectionAdapter {
+
+    /**
+     * Creates the peer connections of a {@link WebRtcClient}.
+     */
+    interface Provider {
+        PeerConnectionAdapter createPeerConnection(List<PeerConnection.IceServer> iceServers,
+                                                   MediaConstraints constraints, PeerConnection.Observer observer);
+    }
+
+    SessionDescription getRemoteDescription();
+
+    void createOffer(SdpObserver observer, MediaConstraints constraints);
+
+    void createAnswer(SdpObserver observer, MediaConstraints constraints);
+
+    void setLocalDescription(SdpObserver observer, SessionDescription sdp);
+
+    void setRemoteDescription(SdpObserver observer, SessionDescription sdp);
+
+    boolean addIceCandidate(IceCandidate candidate);
+
+    boolean addStream(MediaStream stream);
+
+    void removeStream(MediaStream stream);
+
+    boolean getStats(StatsObserver observer, MediaStreamTrack track);
+
+    PeerConnection.SignalingState signalingState();
+
+    void dispose();
+
+    /**
+     * Adapter of a native {@link PeerConnection}.
+     */
+    class Native implements PeerConnectionAdapter {
+        private final PeerConnection pc;
+
+        public Native(PeerConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public SessionDescription getRemoteDescription() {
+            return pc.getRemoteDescription();
+        }
+
+        @Override
+        public void createOffer(SdpObserver observer, MediaConstraints constraints) {
+            pc.createOffer(observer, constraints);
+        }
+
+        @Override
+        public void createAnswer(SdpObserver observer, MediaConstraints constraints) {
+            pc.createAnswer(observer, constraints);
+        }
+
+        @Override
+        public void setLocalDescription(SdpObserver observer, SessionDescription sdp) {
+            pc.setLocalDescription(observer, sdp);
+        }
+
+        @Override
+        public void setRemoteDescription(SdpObserver observer, SessionDescription sdp) {
+            pc.setRemoteDescription(observer, sdp);
+        }
+
+        @Override
+        public boolean addIceCandidate(IceCandidate candidate) {
+            return pc.addIceCandidate(candidate);
+        }
+
+        @Override
+        public boolean addStream(MediaStream stream) {
+            return pc.addStream(stream);
+        }
+
+        @Override
+        public void removeStream(MediaStream stream) {
+            pc.removeStream(stream);
+        }
+
+        @Override
+        public boolean getStats(StatsObserver observer, MediaStreamTrack track) {
+            return pc.getStats(observer, track);
+        }
+
+        @Override
+        public PeerConnection.SignalingState signalingState() {
+            return pc.signalingState();
+        }
+
+        @Override
+        public void dispose() {
+            pc.dispose();
+        }
+    }
+}
@@ -14,6 +14,83 @@ public class PeerConnectionParameters {
     public final String audioCodec;
     public final boolean cpuOveruseDetection;
 
+    // Optional settings, read when the WebRtcClient is created.
+
+    /**
+     * Window in ms used to coalesce local ICE candidates into one "candidates" message.
+     * 0 sends every candidate in its own "candidate" message, which any peer understands.
+     */
+    public int candidateBatchWindowMs = 0;
+
+    /**
+     * Split the uplink bandwidth between the peers of a mesh call and cap each peer
+     * connection with b=AS, renegotiating when a cap changes significantly.
+     */
+    public boolean bandwidthAllocation = false;
+
+    /**
+     * Offer the compact binary signaling format to the server. Messages stay JSON
+     * unless the server accepts it, see {@link SignalingCodec}.
+     */
+    public boolean binarySignaling = false;
+
+    /**
+     * Keep one idle peer connection with the local stream attached, created when the
+     * client starts, so the first message of a caller does not wait for its creation.
+     */
+    public boolean preWarmPeerConnection = false;
+
+    /**
+     * Number the outbound signaling messages and keep the unacknowledged ones, so
+     * that after a short disconnection the session is resumed and they are sent
+     * again instead of the calls being torn down. Needs server support.
+     */
+    public boolean signalingResume = false;
+
+    /**
+     * Offer right away when calling a peer instead of sending "init" and waiting for
+     * its offer. Both peers must enable it: simultaneous offers are resolved by their
+     * ids, the peer with the lower id drops its own offer and answers.
+     */
+    public boolean immediateOffer = false;
+
+    /**
+     * Codecs kept in the local descriptions, by encoding name, e.g. "opus", "VP8" or
+     * "telephone-event". Other payload types are removed with their rtpmap, fmtp and
+     * rtcp-fb lines, rtx follows the codec it repairs, and audioCodec and videoCodec
+     * are always kept. null keeps every codec.
+     */
+    public String[] sdpCodecAllowList = null;
+
+    /**
+     * Header extension URIs kept in the local descriptions, the other a=extmap lines
+     * are removed. null keeps every extension.
+     */
+    public String[] sdpExtensionAllowList = null;
+
+    /**
+     * Highest video send bitrate in kbps, written as b=AS and x-google-max-bitrate into
+     * the remote descriptions. 0 leaves it to the bandwidth estimation.
+     */
+    public int videoMaxBitrate = 0;
+
+    // Opus tuning, written into the local and remote descriptions.
+
+    /** Ask for Opus in-band forward error correction, useinbandfec=1. */
+    public boolean opusFec = false;
+
+    /** Ask for Opus discontinuous transmission during silence, usedtx=1. */
+    public boolean opusDtx = false;
+
+    /** Ask for mono Opus, stereo=0. */
+    public boolean opusMono = false;
+
+    /** Highest Opus sample rate worth encoding, in Hz, e.g. 16000 for voice. 0 leaves it to the codec. */
+    public int opusMaxPlaybackRate = 0;
+
+    /** Audio packet duration in ms, a=ptime, e.g. 60 to send fewer packets. 0 leaves it to the codec. */
+    public int audioPtimeMs = 0;
+
     /**
      *
      * @param videoCallEnabled whether enable video or not
@@ -22,7 +99,8 @@ public class PeerConnectionParameters {
      * @param videoHeight
      * @param videoFps
      * @param videoStartBitrate
-     * @param videoCodec
+     * @param videoCodec video codec whose bitrates are set, or "auto" to pick and prefer the one this
+     *                   device runs in hardware
      * @param videoCodecHwAcceleration
      * @param audioStartBitrate bit rate for audio transmission
      * @param audioCodec codec used for audio
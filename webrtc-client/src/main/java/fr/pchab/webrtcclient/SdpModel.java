@@ -0,0 +1,562 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parsed form of a session description.
+ *
+ * The description is split into lines once, m-sections are indexed by payload
+ * type (rtpmap and fmtp) and every munging operation edits this model. Call
+ * {@link #toString()} once at the end to get the new description back.
+ *
+ * This class has no Android dependency so it can be exercised on a plain JVM.
+ */
+public final class SdpModel {
+
+    private static final String LINE_SEPARATOR = "\r\n";
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+    private static final String RTCP_FB_PREFIX = "a=rtcp-fb:";
+
+    private final List<String> sessionLines = new ArrayList<>();
+    private final List<MediaSection> mediaSections = new ArrayList<>(3);
+    private final int sourceLength;
+
+    private SdpModel(int sourceLength) {
+        this.sourceLength = sourceLength;
+    }
+
+    /**
+     * Parse a session description.
+     * @param sdpDescription description as carried by {@link org.webrtc.SessionDescription}
+     * @return the parsed model
+     */
+    public static SdpModel parse(String sdpDescription) {
+        SdpModel model = new SdpModel(sdpDescription.length());
+        MediaSection current = null;
+        int length = sdpDescription.length();
+        int start = 0;
+        while (start < length) {
+            int end = sdpDescription.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && sdpDescription.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                String line = sdpDescription.substring(start, lineEnd);
+                if (line.startsWith("m=")) {
+                    current = MediaSection.parse(line);
+                    model.mediaSections.add(current);
+                } else if (current == null) {
+                    model.sessionLines.add(line);
+                } else {
+                    current.addLine(line);
+                }
+            }
+            start = end + 1;
+        }
+        return model;
+    }
+
+    /** @return session level lines, i.e. everything before the first m-line */
+    public List<String> getSessionLines() {
+        return sessionLines;
+    }
+
+    /** @return the m-sections in description order */
+    public List<MediaSection> getMediaSections() {
+        return Collections.unmodifiableList(mediaSections);
+    }
+
+    /**
+     * @param media media type such as "audio" or "video"
+     * @return the first m-section of that type, or null if there is none
+     */
+    public MediaSection getMediaSection(String media) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            MediaSection section = mediaSections.get(i);
+            if (section.media.equals(media)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serialize the model back to a description. Every line is terminated with CRLF.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(sourceLength + 256);
+        for (int i = 0; i < sessionLines.size(); i++) {
+            builder.append(sessionLines.get(i)).append(LINE_SEPARATOR);
+        }
+        for (int i = 0; i < mediaSections.size(); i++) {
+            mediaSections.get(i).appendTo(builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Extract the payload type from an rtpmap, fmtp or rtcp-fb line.
+     * @return the payload type or null if the line is not payload specific
+     */
+    static String payloadTypeOf(String line, int prefixLength) {
+        int end = prefixLength;
+        while (end < line.length() && line.charAt(end) != ' ') {
+            end++;
+        }
+        return end > prefixLength ? line.substring(prefixLength, end) : null;
+    }
+
+    /**
+     * One m-section: the m-line plus every line up to the next m-line.
+     */
+    public static final class MediaSection {
+        private final String media;
+        private String port;
+        private String proto;
+        private final ArrayList<String> formats;
+        private final ArrayList<String> lines = new ArrayList<>();
+        // payload type -> "<encoding name>/<clock rate>[/<encoding parameters>]"
+        private final HashMap<String, String> rtpmaps = new HashMap<>();
+        // payload type -> format parameters, only for payload types with an a=fmtp line
+        // or whose parameters have been requested for editing
+        private final HashMap<String, FormatParameters> fmtps = new HashMap<>();
+        private boolean formatsRemoved = false;
+
+        private MediaSection(String media, String port, String proto, ArrayList<String> formats) {
+            this.media = media;
+            this.port = port;
+            this.proto = proto;
+            this.formats = formats;
+        }
+
+        // Format is: m=<media> <port> <proto> <fmt> ...
+        private static MediaSection parse(String mLine) {
+            String[] parts = mLine.substring(2).split(" ");
+            ArrayList<String> formats = new ArrayList<>(Math.max(parts.length - 3, 0));
+            for (int i = 3; i < parts.length; i++) {
+                if (parts[i].length() > 0) {
+                    formats.add(parts[i]);
+                }
+            }
+            return new MediaSection(parts[0],
+                    parts.length > 1 ? parts[1] : "0",
+                    parts.length > 2 ? parts[2] : "",
+                    formats);
+        }
+
+        private void addLine(String line) {
+            if (line.startsWith(RTPMAP_PREFIX)) {
+                String payloadType = payloadTypeOf(line, RTPMAP_PREFIX.length());
+                int valueStart = RTPMAP_PREFIX.length() + (payloadType == null ? 0 : payloadType.length()) + 1;
+                if (payloadType != null && valueStart < line.length() && !rtpmaps.containsKey(payloadType)) {
+                    rtpmaps.put(payloadType, line.substring(valueStart));
+                }
+            } else if (line.startsWith(FMTP_PREFIX)) {
+                String payloadType = payloadTypeOf(line, FMTP_PREFIX.length());
+                if (payloadType != null && !fmtps.containsKey(payloadType)) {
+                    int valueStart = FMTP_PREFIX.length() + payloadType.length() + 1;
+                    fmtps.put(payloadType, new FormatParameters(
+                            valueStart < line.length() ? line.substring(valueStart) : "", true));
+                }
+            }
+            lines.add(line);
+        }
+
+        /** @return media type, e.g. "audio", "video" or "application" */
+        public String getMedia() {
+            return media;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        public void setPort(String port) {
+            this.port = port;
+        }
+
+        public String getProto() {
+            return proto;
+        }
+
+        /** @return payload types in order of preference */
+        public List<String> getFormats() {
+            return Collections.unmodifiableList(formats);
+        }
+
+        /**
+         * @return attribute lines of this section, excluding the m-line. The list may be edited
+         * directly for lines that are not indexed by payload type.
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * @param payloadType payload type
+         * @return "&lt;encoding name&gt;/&lt;clock rate&gt;[/&lt;params&gt;]" or null if not mapped
+         */
+        public String getEncoding(String payloadType) {
+            return rtpmaps.get(payloadType);
+        }
+
+        /**
+         * @param payloadType payload type
+         * @return encoding name of the payload type, or null if it has no rtpmap
+         */
+        public String getCodecName(String payloadType) {
+            String encoding = rtpmaps.get(payloadType);
+            if (encoding == null) {
+                return null;
+            }
+            int slash = encoding.indexOf('/');
+            return slash < 0 ? encoding : encoding.substring(0, slash);
+        }
+
+        /**
+         * Find the first payload type, in m-line order, mapped to a codec.
+         * @param codec encoding name, compared case insensitively
+         * @return payload type or null if the codec is not offered in this section
+         */
+        public String findPayloadType(String codec) {
+            for (int i = 0; i < formats.size(); i++) {
+                String payloadType = formats.get(i);
+                String name = getCodecName(payloadType);
+                if (name != null && name.equalsIgnoreCase(codec)) {
+                    return payloadType;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param codec encoding name, compared case insensitively
+         * @return every payload type mapped to the codec, in m-line order
+         */
+        public List<String> findPayloadTypes(String codec) {
+            List<String> result = new ArrayList<>(2);
+            for (int i = 0; i < formats.size(); i++) {
+                String payloadType = formats.get(i);
+                String name = getCodecName(payloadType);
+                if (name != null && name.equalsIgnoreCase(codec)) {
+                    result.add(payloadType);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Get the format parameters of a payload type for reading or editing. When the payload
+         * type has no a=fmtp line yet, one is written right after its rtpmap on serialization if
+         * any parameter is set.
+         */
+        public FormatParameters getFormatParameters(String payloadType) {
+            FormatParameters parameters = fmtps.get(payloadType);
+            if (parameters == null) {
+                parameters = new FormatParameters("", false);
+                fmtps.put(payloadType, parameters);
+            }
+            return parameters;
+        }
+
+        /**
+         * Move payload types to the front of the m-line, keeping the given order.
+         * @param payloadTypes payload types present in this section
+         */
+        public void preferFormats(List<String> payloadTypes) {
+            for (int i = payloadTypes.size() - 1; i >= 0; i--) {
+                String payloadType = payloadTypes.get(i);
+                if (formats.remove(payloadType)) {
+                    formats.add(0, payloadType);
+                }
+            }
+        }
+
+        /**
+         * Remove a payload type from the m-line. Its rtpmap, fmtp and rtcp-fb lines are
+         * dropped on serialization.
+         * @return true if the payload type was part of this section
+         */
+        public boolean removeFormat(String payloadType) {
+            if (formats.remove(payloadType)) {
+                formatsRemoved = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param name attribute name, without the "a=" prefix
+         * @return value of the first a=name:value line, "" for a flag attribute, or null
+         */
+        public String getAttribute(String name) {
+            int index = indexOfAttribute(name);
+            if (index < 0) {
+                return null;
+            }
+            String line = lines.get(index);
+            int valueStart = name.length() + 2;
+            return line.length() > valueStart ? line.substring(valueStart + 1) : "";
+        }
+
+        /**
+         * Replace the first a=name:value line or append a new one.
+         * @param name attribute name, without the "a=" prefix
+         * @param value attribute value, or null for a flag attribute
+         */
+        public void setAttribute(String name, String value) {
+            String line = value == null ? "a=" + name : "a=" + name + ":" + value;
+            int index = indexOfAttribute(name);
+            if (index < 0) {
+                lines.add(line);
+            } else {
+                lines.set(index, line);
+            }
+        }
+
+        /**
+         * Remove every a=name line.
+         * @param name attribute name, without the "a=" prefix
+         * @return number of removed lines
+         */
+        public int removeAttribute(String name) {
+            int removed = 0;
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                if (isAttribute(lines.get(i), name)) {
+                    lines.remove(i);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Set the section bandwidth line "b=&lt;modifier&gt;:&lt;value&gt;". A new line is placed
+         * after the c-line as required by the line order of RFC 4566.
+         * @param modifier bandwidth type, e.g. "AS" or "TIAS"
+         * @param value bandwidth value, a negative value removes the line
+         */
+        public void setBandwidth(String modifier, int value) {
+            String prefix = "b=" + modifier + ":";
+            int insertAt = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith(prefix)) {
+                    if (value < 0) {
+                        lines.remove(i);
+                    } else {
+                        lines.set(i, prefix + value);
+                    }
+                    return;
+                }
+                if (line.startsWith("i=") || line.startsWith("c=") || line.startsWith("b=")) {
+                    insertAt = i + 1;
+                }
+            }
+            if (value >= 0) {
+                lines.add(insertAt, prefix + value);
+            }
+        }
+
+        /**
+         * @param modifier bandwidth type, e.g. "AS"
+         * @return the bandwidth value or -1 if the section has no such line
+         */
+        public int getBandwidth(String modifier) {
+            String prefix = "b=" + modifier + ":";
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith(prefix)) {
+                    try {
+                        return Integer.parseInt(line.substring(prefix.length()).trim());
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private int indexOfAttribute(String name) {
+            for (int i = 0; i < lines.size(); i++) {
+                if (isAttribute(lines.get(i), name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isAttribute(String line, String name) {
+            int end = name.length() + 2;
+            return line.length() >= end
+                    && line.startsWith("a=")
+                    && line.regionMatches(2, name, 0, name.length())
+                    && (line.length() == end || line.charAt(end) == ':');
+        }
+
+        private void appendTo(StringBuilder builder) {
+            builder.append("m=").append(media).append(' ').append(port).append(' ').append(proto);
+            for (int i = 0; i < formats.size(); i++) {
+                builder.append(' ').append(formats.get(i));
+            }
+            builder.append(LINE_SEPARATOR);
+
+            Set<String> kept = null;
+            if (formatsRemoved) {
+                kept = new HashSet<>(formats);
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith(RTPMAP_PREFIX)) {
+                    String payloadType = payloadTypeOf(line, RTPMAP_PREFIX.length());
+                    if (kept != null && !kept.contains(payloadType)) {
+                        continue;
+                    }
+                    builder.append(line).append(LINE_SEPARATOR);
+                    // Append new a=fmtp line if no such line exist for a codec.
+                    FormatParameters parameters = fmtps.get(payloadType);
+                    if (parameters != null && !parameters.hasLine && !parameters.isEmpty()) {
+                        parameters.appendLine(builder, payloadType);
+                    }
+                } else if (line.startsWith(FMTP_PREFIX)) {
+                    String payloadType = payloadTypeOf(line, FMTP_PREFIX.length());
+                    if (kept != null && !kept.contains(payloadType)) {
+                        continue;
+                    }
+                    FormatParameters parameters = fmtps.get(payloadType);
+                    if (parameters != null && parameters.isModified()) {
+                        if (!parameters.isEmpty()) {
+                            parameters.appendLine(builder, payloadType);
+                        }
+                    } else {
+                        builder.append(line).append(LINE_SEPARATOR);
+                    }
+                } else if (line.startsWith(RTCP_FB_PREFIX)) {
+                    String payloadType = payloadTypeOf(line, RTCP_FB_PREFIX.length());
+                    if (kept != null && !"*".equals(payloadType) && !kept.contains(payloadType)) {
+                        continue;
+                    }
+                    builder.append(line).append(LINE_SEPARATOR);
+                } else {
+                    builder.append(line).append(LINE_SEPARATOR);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parameters of an a=fmtp line. The raw text is only split into key/value pairs when
+     * a parameter is read or written.
+     */
+    public static final class FormatParameters {
+        private final String raw;
+        private final boolean hasLine;
+        private LinkedHashMap<String, String> parameters;
+        private boolean modified = false;
+
+        private FormatParameters(String raw, boolean hasLine) {
+            this.raw = raw;
+            this.hasLine = hasLine;
+        }
+
+        /**
+         * @param name parameter name
+         * @return parameter value, "" for a parameter without value, or null if absent
+         */
+        public String get(String name) {
+            return parameters().get(name);
+        }
+
+        /**
+         * Set a parameter, replacing the current value if any.
+         * @param value parameter value, or null for a parameter without value
+         */
+        public void put(String name, String value) {
+            parameters().put(name, value == null ? "" : value);
+            modified = true;
+        }
+
+        /**
+         * @return true if the parameter was present
+         */
+        public boolean remove(String name) {
+            if (parameters().remove(name) != null) {
+                modified = true;
+                return true;
+            }
+            return false;
+        }
+
+        /** @return parameters in line order */
+        public Map<String, String> asMap() {
+            return Collections.unmodifiableMap(parameters());
+        }
+
+        public boolean isEmpty() {
+            return parameters == null ? raw.length() == 0 : parameters.isEmpty();
+        }
+
+        boolean isModified() {
+            return modified;
+        }
+
+        private LinkedHashMap<String, String> parameters() {
+            if (parameters == null) {
+                parameters = new LinkedHashMap<>();
+                int start = 0;
+                int length = raw.length();
+                while (start < length) {
+                    int end = raw.indexOf(';', start);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    String parameter = raw.substring(start, end).trim();
+                    if (parameter.length() > 0) {
+                        int equals = parameter.indexOf('=');
+                        if (equals < 0) {
+                            parameters.put(parameter, "");
+                        } else {
+                            parameters.put(parameter.substring(0, equals).trim(),
+                                    parameter.substring(equals + 1).trim());
+                        }
+                    }
+                    start = end + 1;
+                }
+            }
+            return parameters;
+        }
+
+        private void appendLine(StringBuilder builder, String payloadType) {
+            builder.append(FMTP_PREFIX).append(payloadType).append(' ');
+            if (parameters == null) {
+                builder.append(raw);
+            } else {
+                boolean first = true;
+                for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                    if (!first) {
+                        builder.append(';');
+                    }
+                    first = false;
+                    builder.append(entry.getKey());
+                    if (entry.getValue().length() > 0) {
+                        builder.append('=').append(entry.getValue());
+                    }
+                }
+            }
+            builder.append(LINE_SEPARATOR);
+        }
+    }
+}
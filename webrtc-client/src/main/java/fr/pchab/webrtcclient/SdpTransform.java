@@ -0,0 +1,16 @@
+package fr.pchab.webrtcclient;
+
+/**
+ * One rewrite step of a {@link SdpTransformChain}.
+ *
+ * Implementations edit the parsed description in place and must not keep a
+ * reference to it after {@link #apply(SdpModel)} returns.
+ */
+public interface SdpTransform {
+
+    /**
+     * @param sdp parsed description to edit
+     * @return true if the description was modified
+     */
+    boolean apply(SdpModel sdp);
+}
@@ -0,0 +1,330 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordered chain of {@link SdpTransform}s.
+ *
+ * A description is parsed once, every stage registered for its direction
+ * edits the same {@link SdpModel} and the result is serialized once. Each stage
+ * is timed; the cost of the last run and the totals since creation can be read
+ * back for logging.
+ */
+public final class SdpTransformChain {
+
+    /** Which description a stage applies to. */
+    public enum Direction {
+        /** Descriptions created by the local PeerConnection, before they are sent. */
+        LOCAL,
+        /** Descriptions received from the remote peer, before they are applied. */
+        REMOTE
+    }
+
+    // AppRTCUtils.VIDEO_CODEC_AUTO, the chain stays free of Android classes
+    private static final String VIDEO_CODEC_AUTO = "auto";
+    private static final String STAGE_PARSE = "parse";
+    private static final String STAGE_SERIALIZE = "serialize";
+    private static final String STAGE_EXTRA = "extra";
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final StageTiming parseTiming = new StageTiming(STAGE_PARSE);
+    private final StageTiming serializeTiming = new StageTiming(STAGE_SERIALIZE);
+    private final StageTiming extraTiming = new StageTiming(STAGE_EXTRA);
+    private long lastRunNanos;
+    private Direction lastRunDirection;
+
+    /**
+     * Build the chain configured by the peer connection parameters.
+     */
+    public static SdpTransformChain fromParameters(PeerConnectionParameters params) {
+        return fromParameters(params, params.videoCodec);
+    }
+
+    /**
+     * Build the chain configured by the peer connection parameters, with the video codec
+     * resolved by the caller, e.g. from the hardware codecs of the device.
+     *
+     * Codec preference is the one WebRtcClient always had: ISAC is moved first when it
+     * is the audio codec, any other audio codec is left where the engine put it. The
+     * video codec is only moved first when it was picked automatically, a configured
+     * one such as "VP9" only feeds the bitrate stages.
+     */
+    public static SdpTransformChain fromParameters(PeerConnectionParameters params, String videoCodec) {
+        SdpTransformChain chain = new SdpTransformChain();
+        if (params.sdpCodecAllowList != null || params.sdpExtensionAllowList != null) {
+            // first, so the later stages work on the smaller description
+            chain.add("minimize", SdpTransforms.minimize(allowedCodecs(params, videoCodec),
+                    params.sdpExtensionAllowList), true, false);
+        }
+        if (SdpTransforms.CODEC_ISAC.equals(params.audioCodec)) {
+            chain.add("prefer-audio-codec",
+                    SdpTransforms.preferCodec(SdpTransforms.MEDIA_AUDIO, params.audioCodec), true, true);
+        }
+        if (params.videoCallEnabled && videoCodec != null && VIDEO_CODEC_AUTO.equals(params.videoCodec)) {
+            chain.add("prefer-video-codec",
+                    SdpTransforms.preferCodec(SdpTransforms.MEDIA_VIDEO, videoCodec), true, true);
+        }
+        if (params.audioStartBitrate > 0) {
+            // The bitrate the remote side asks for caps what we send.
+            chain.add("audio-start-bitrate", SdpTransforms.startBitrate(SdpTransforms.MEDIA_AUDIO,
+                    SdpTransforms.CODEC_OPUS, params.audioStartBitrate), false, true);
+        }
+        if (params.videoCallEnabled && params.videoStartBitrate > 0) {
+            // start near the expected capacity instead of ramping up, but not above the cap
+            int startKbps = params.videoMaxBitrate > 0
+                    ? Math.min(params.videoStartBitrate, params.videoMaxBitrate) : params.videoStartBitrate;
+            chain.add("video-start-bitrate", SdpTransforms.startBitrate(SdpTransforms.MEDIA_VIDEO,
+                    videoCodec, startKbps), false, true);
+        }
+        if (params.videoCallEnabled && params.videoMaxBitrate > 0) {
+            chain.add("video-max-bitrate", SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO,
+                    videoCodec, params.videoMaxBitrate), false, true);
+        }
+        // What the remote side asks for shapes what we send, what we ask for what we get.
+        Map<String, String> opus = opusParameters(params);
+        if (!opus.isEmpty()) {
+            chain.add("opus-parameters", SdpTransforms.opusParameters(opus), true, true);
+        }
+        if (params.audioPtimeMs > 0) {
+            chain.add("audio-ptime", SdpTransforms.packetTime(SdpTransforms.MEDIA_AUDIO, params.audioPtimeMs),
+                    true, true);
+        }
+        return chain;
+    }
+
+    private static Map<String, String> opusParameters(PeerConnectionParameters params) {
+        Map<String, String> opus = new LinkedHashMap<>();
+        if (params.opusFec) {
+            opus.put(SdpTransforms.OPUS_PARAM_FEC, "1");
+        }
+        if (params.opusDtx) {
+            opus.put(SdpTransforms.OPUS_PARAM_DTX, "1");
+        }
+        if (params.opusMono) {
+            opus.put(SdpTransforms.OPUS_PARAM_STEREO, "0");
+        }
+        if (params.opusMaxPlaybackRate > 0) {
+            opus.put(SdpTransforms.OPUS_PARAM_MAX_PLAYBACK_RATE, Integer.toString(params.opusMaxPlaybackRate));
+        }
+        return opus;
+    }
+
+    // the configured codecs are always kept, so the preference stages still find them
+    private static String[] allowedCodecs(PeerConnectionParameters params, String videoCodec) {
+        if (params.sdpCodecAllowList == null) {
+            return null;
+        }
+        List<String> codecs = new ArrayList<>(params.sdpCodecAllowList.length + 2);
+        Collections.addAll(codecs, params.sdpCodecAllowList);
+        if (params.audioCodec != null) {
+            codecs.add(params.audioCodec);
+        }
+        if (params.videoCallEnabled && videoCodec != null) {
+            codecs.add(videoCodec);
+        }
+        return codecs.toArray(new String[codecs.size()]);
+    }
+
+    /**
+     * Register a stage at the end of the chain.
+     * @param name stage name used in timings
+     * @param transform the rewrite
+     * @param local apply to local descriptions
+     * @param remote apply to remote descriptions
+     * @return this chain
+     */
+    public synchronized SdpTransformChain add(String name, SdpTransform transform, boolean local, boolean remote) {
+        stages.add(new Stage(name, transform, local, remote));
+        return this;
+    }
+
+    /** @return true if no stage applies to the direction */
+    public synchronized boolean isEmpty(Direction direction) {
+        for (int i = 0; i < stages.size(); i++) {
+            if (stages.get(i).appliesTo(direction)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run every stage registered for the direction.
+     * @param sdpDescription description text
+     * @param direction direction of the description
+     * @return the rewritten description, or the same instance if no stage modified it
+     */
+    public String apply(String sdpDescription, Direction direction) {
+        return apply(sdpDescription, direction, null);
+    }
+
+    /**
+     * Run every stage registered for the direction, then an extra stage specific to this
+     * description, e.g. a per-peer bandwidth cap, in the same pass.
+     * @param sdpDescription description text
+     * @param direction direction of the description
+     * @param extra stage run after the registered ones, may be null
+     * @return the rewritten description, or the same instance if no stage modified it
+     */
+    public synchronized String apply(String sdpDescription, Direction direction, SdpTransform extra) {
+        long runStart = System.nanoTime();
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).timing.lastNanos = 0;
+        }
+        serializeTiming.lastNanos = 0;
+        extraTiming.lastNanos = 0;
+        lastRunDirection = direction;
+        if (extra == null && isEmpty(direction)) {
+            parseTiming.lastNanos = 0;
+            lastRunNanos = 0;
+            return sdpDescription;
+        }
+
+        long start = System.nanoTime();
+        SdpModel sdp = SdpModel.parse(sdpDescription);
+        parseTiming.record(System.nanoTime() - start);
+
+        boolean modified = false;
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (!stage.appliesTo(direction)) {
+                continue;
+            }
+            start = System.nanoTime();
+            modified |= stage.transform.apply(sdp);
+            stage.timing.record(System.nanoTime() - start);
+        }
+        if (extra != null) {
+            start = System.nanoTime();
+            modified |= extra.apply(sdp);
+            extraTiming.record(System.nanoTime() - start);
+        }
+
+        String result = sdpDescription;
+        if (modified) {
+            start = System.nanoTime();
+            result = sdp.toString();
+            serializeTiming.record(System.nanoTime() - start);
+        }
+        lastRunNanos = System.nanoTime() - runStart;
+        return result;
+    }
+
+    /** @return timing of every stage including parse, extra and serialize, in execution order */
+    public synchronized List<StageTiming> getTimings() {
+        List<StageTiming> timings = new ArrayList<>(stages.size() + 2);
+        timings.add(parseTiming.copy());
+        for (int i = 0; i < stages.size(); i++) {
+            timings.add(stages.get(i).timing.copy());
+        }
+        timings.add(extraTiming.copy());
+        timings.add(serializeTiming.copy());
+        return timings;
+    }
+
+    /**
+     * @return one line summary of the last run, e.g. "REMOTE 84us [parse 40us, prefer-audio-codec 3us, ...]"
+     */
+    public synchronized String describeLastRun() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(lastRunDirection).append(' ').append(lastRunNanos / 1000).append("us [");
+        builder.append(STAGE_PARSE).append(' ').append(parseTiming.lastNanos / 1000).append("us");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (stage.appliesTo(lastRunDirection)) {
+                builder.append(", ").append(stage.timing.name).append(' ')
+                        .append(stage.timing.lastNanos / 1000).append("us");
+            }
+        }
+        if (extraTiming.lastNanos > 0) {
+            builder.append(", ").append(STAGE_EXTRA).append(' ')
+                    .append(extraTiming.lastNanos / 1000).append("us");
+        }
+        builder.append(", ").append(STAGE_SERIALIZE).append(' ')
+                .append(serializeTiming.lastNanos / 1000).append("us]");
+        return builder.toString();
+    }
+
+    private static final class Stage {
+        private final SdpTransform transform;
+        private final boolean local;
+        private final boolean remote;
+        private final StageTiming timing;
+
+        private Stage(String name, SdpTransform transform, boolean local, boolean remote) {
+            this.transform = transform;
+            this.local = local;
+            this.remote = remote;
+            this.timing = new StageTiming(name);
+        }
+
+        private boolean appliesTo(Direction direction) {
+            return direction == Direction.LOCAL ? local : remote;
+        }
+    }
+
+    /**
+     * Accumulated cost of one stage.
+     */
+    public static final class StageTiming {
+        public final String name;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastNanos;
+
+        private StageTiming(String name) {
+            this.name = name;
+        }
+
+        private void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            lastNanos = nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        private StageTiming copy() {
+            StageTiming copy = new StageTiming(name);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.lastNanos = lastNanos;
+            return copy;
+        }
+
+        /** @return number of runs of this stage */
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** @return duration of the last run, 0 if the stage did not run */
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public long getAverageNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return name + " count=" + count + " avg=" + getAverageNanos() / 1000
+                    + "us max=" + maxNanos / 1000 + "us";
+        }
+    }
+}
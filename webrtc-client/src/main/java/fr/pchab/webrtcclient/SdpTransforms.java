@@ -0,0 +1,322 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Factory of the stock {@link SdpTransform}s.
+ */
+public final class SdpTransforms {
+
+    public static final String MEDIA_AUDIO = "audio";
+    public static final String MEDIA_VIDEO = "video";
+
+    static final String CODEC_OPUS = "opus";
+    static final String CODEC_ISAC = "ISAC";
+    static final String CODEC_RTX = "rtx";
+    static final String CODEC_PARAM_APT = "apt";
+    static final String EXTMAP_PREFIX = "a=extmap:";
+    static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    static final String VIDEO_CODEC_PARAM_MAX_BITRATE = "x-google-max-bitrate";
+    static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+    static final String OPUS_PARAM_FEC = "useinbandfec";
+    static final String OPUS_PARAM_DTX = "usedtx";
+    static final String OPUS_PARAM_STEREO = "stereo";
+    static final String OPUS_PARAM_MAX_PLAYBACK_RATE = "maxplaybackrate";
+    static final String ATTRIBUTE_PTIME = "ptime";
+    static final String BANDWIDTH_APPLICATION_SPECIFIC = "AS";
+
+    private SdpTransforms() {}
+
+    /**
+     * Move a codec to the front of the m-line so it is negotiated first. The description
+     * is left unmodified if the codec is missing or already first.
+     * @param media "audio" or "video"
+     * @param codec encoding name
+     */
+    public static SdpTransform preferCodec(final String media, final String codec) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                return preferCodec(sdp, media, codec);
+            }
+        };
+    }
+
+    /**
+     * Set the start bitrate of a codec: x-google-start-bitrate for video,
+     * maxaveragebitrate for audio.
+     * @param media "audio" or "video"
+     * @param codec encoding name, or null for the first codec of the m-line
+     * @param bitrateKbps bitrate in kbps
+     */
+    public static SdpTransform startBitrate(final String media, final String codec, final int bitrateKbps) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                return setStartBitrate(sdp, media, codec, bitrateKbps);
+            }
+        };
+    }
+
+    /**
+     * Cap the bandwidth of an m-section with b=AS, and for video also with
+     * x-google-max-bitrate on the given codec.
+     * @param media "audio" or "video"
+     * @param codec encoding name of the video codec to cap, or null for the first codec of the m-line
+     * @param bitrateKbps bitrate in kbps
+     */
+    public static SdpTransform maxBitrate(final String media, final String codec, final int bitrateKbps) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                return setMaxBitrate(sdp, media, codec, bitrateKbps);
+            }
+        };
+    }
+
+    /**
+     * Remove codecs from an m-section.
+     * @param media "audio" or "video"
+     * @param codecs encoding names to remove
+     */
+    public static SdpTransform stripCodecs(final String media, final String... codecs) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                SdpModel.MediaSection section = sdp.getMediaSection(media);
+                if (section == null) {
+                    return false;
+                }
+                boolean modified = false;
+                for (String codec : codecs) {
+                    List<String> payloadTypes = section.findPayloadTypes(codec);
+                    for (int i = 0; i < payloadTypes.size(); i++) {
+                        modified |= section.removeFormat(payloadTypes.get(i));
+                    }
+                }
+                return modified;
+            }
+        };
+    }
+
+    /**
+     * Set format parameters of a codec, e.g. Opus "useinbandfec" or "usedtx".
+     * @param media "audio" or "video"
+     * @param codec encoding name
+     * @param parameters parameters to set, an empty value writes a parameter without value
+     */
+    public static SdpTransform codecParameters(final String media, final String codec,
+                                               final Map<String, String> parameters) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                SdpModel.MediaSection section = sdp.getMediaSection(media);
+                String payloadType = section == null ? null : section.findPayloadType(codec);
+                if (payloadType == null || parameters.isEmpty()) {
+                    return false;
+                }
+                SdpModel.FormatParameters fmtp = section.getFormatParameters(payloadType);
+                for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                    fmtp.put(parameter.getKey(), parameter.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Strip every audio and video m-section down to the allowed codecs and header
+     * extensions. A removed payload type takes its rtpmap, fmtp and rtcp-fb lines
+     * with it; an rtx payload type is kept when the codec its apt names is kept.
+     * A section offering none of the allowed codecs keeps all of them.
+     * @param codecs encoding names to keep, compared case insensitively, null to keep every codec
+     * @param extensions header extension URIs to keep, null to keep every extension
+     */
+    public static SdpTransform minimize(final String[] codecs, final String[] extensions) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                boolean modified = false;
+                List<SdpModel.MediaSection> sections = sdp.getMediaSections();
+                for (int i = 0; i < sections.size(); i++) {
+                    SdpModel.MediaSection section = sections.get(i);
+                    if (!MEDIA_AUDIO.equals(section.getMedia()) && !MEDIA_VIDEO.equals(section.getMedia())) {
+                        continue;
+                    }
+                    if (codecs != null) {
+                        modified |= keepCodecs(section, codecs);
+                    }
+                    if (extensions != null) {
+                        modified |= keepExtensions(section, extensions);
+                    }
+                }
+                return modified;
+            }
+        };
+    }
+
+    /**
+     * Set the Opus format parameters of the audio m-section.
+     */
+    public static SdpTransform opusParameters(Map<String, String> parameters) {
+        return codecParameters(MEDIA_AUDIO, CODEC_OPUS, parameters);
+    }
+
+    /**
+     * Set the packet duration of an m-section with a=ptime.
+     * @param media "audio" or "video"
+     * @param ptimeMs packet duration in ms
+     */
+    public static SdpTransform packetTime(final String media, final int ptimeMs) {
+        return new SdpTransform() {
+            @Override
+            public boolean apply(SdpModel sdp) {
+                SdpModel.MediaSection section = sdp.getMediaSection(media);
+                if (section == null) {
+                    return false;
+                }
+                section.setAttribute(ATTRIBUTE_PTIME, Integer.toString(ptimeMs));
+                return true;
+            }
+        };
+    }
+
+    static boolean preferCodec(SdpModel sdp, String media, String codec) {
+        SdpModel.MediaSection section = sdp.getMediaSection(media);
+        String payloadType = section == null ? null : section.findPayloadType(codec);
+        if (payloadType == null) {
+            return false;
+        }
+        if (payloadType.equals(section.getFormats().get(0))) {
+            return false;
+        }
+        section.preferFormats(Collections.singletonList(payloadType));
+        return true;
+    }
+
+    /**
+     * @return the payload type of the codec, or the first one of the m-line if codec is null
+     */
+    static String payloadTypeOf(SdpModel.MediaSection section, String codec) {
+        if (codec != null) {
+            return section.findPayloadType(codec);
+        }
+        List<String> formats = section.getFormats();
+        return formats.isEmpty() ? null : formats.get(0);
+    }
+
+    static boolean setStartBitrate(SdpModel sdp, String media, String codec, int bitrateKbps) {
+        SdpModel.MediaSection section = sdp.getMediaSection(media);
+        String payloadType = section == null ? null : payloadTypeOf(section, codec);
+        if (payloadType == null) {
+            return false;
+        }
+        // Update the existing a=fmtp parameters for this codec, a new a=fmtp line
+        // is written on serialization if no such line exist.
+        SdpModel.FormatParameters parameters = section.getFormatParameters(payloadType);
+        if (MEDIA_VIDEO.equals(media)) {
+            parameters.put(VIDEO_CODEC_PARAM_START_BITRATE, Integer.toString(bitrateKbps));
+        } else {
+            parameters.put(AUDIO_CODEC_PARAM_BITRATE, Integer.toString(bitrateKbps * 1000));
+        }
+        return true;
+    }
+
+    static boolean keepCodecs(SdpModel.MediaSection section, String[] codecs) {
+        List<String> formats = section.getFormats();
+        Set<String> kept = new HashSet<>();
+        boolean anyAllowed = false;
+        for (int i = 0; i < formats.size(); i++) {
+            String payloadType = formats.get(i);
+            String name = section.getCodecName(payloadType);
+            if (name == null) {
+                // static payload type without rtpmap, nothing to match it against
+                kept.add(payloadType);
+            } else if (!CODEC_RTX.equalsIgnoreCase(name) && containsIgnoreCase(codecs, name)) {
+                kept.add(payloadType);
+                anyAllowed = true;
+            }
+        }
+        if (!anyAllowed) {
+            return false;
+        }
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < formats.size(); i++) {
+            String payloadType = formats.get(i);
+            if (kept.contains(payloadType)) {
+                continue;
+            }
+            if (CODEC_RTX.equalsIgnoreCase(section.getCodecName(payloadType))
+                    && kept.contains(section.getFormatParameters(payloadType).get(CODEC_PARAM_APT))) {
+                continue;
+            }
+            removed.add(payloadType);
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            section.removeFormat(removed.get(i));
+        }
+        return !removed.isEmpty();
+    }
+
+    // Format is: a=extmap:<id>[/<direction>] <uri> [<attributes>]
+    static boolean keepExtensions(SdpModel.MediaSection section, String[] extensions) {
+        boolean modified = false;
+        List<String> lines = section.getLines();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            if (!line.startsWith(EXTMAP_PREFIX)) {
+                continue;
+            }
+            int uriStart = line.indexOf(' ', EXTMAP_PREFIX.length()) + 1;
+            if (uriStart == 0) {
+                continue;
+            }
+            int uriEnd = line.indexOf(' ', uriStart);
+            String uri = line.substring(uriStart, uriEnd < 0 ? line.length() : uriEnd);
+            if (!contains(extensions, uri)) {
+                lines.remove(i);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    private static boolean containsIgnoreCase(String[] values, String value) {
+        for (String candidate : values) {
+            if (candidate.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String candidate : values) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean setMaxBitrate(SdpModel sdp, String media, String codec, int bitrateKbps) {
+        SdpModel.MediaSection section = sdp.getMediaSection(media);
+        if (section == null) {
+            return false;
+        }
+        section.setBandwidth(BANDWIDTH_APPLICATION_SPECIFIC, bitrateKbps);
+        if (MEDIA_VIDEO.equals(media)) {
+            String payloadType = payloadTypeOf(section, codec);
+            if (payloadType != null) {
+                section.getFormatParameters(payloadType)
+                        .put(VIDEO_CODEC_PARAM_MAX_BITRATE, Integer.toString(bitrateKbps));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,399 @@
+package fr.pchab.webrtcclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes {@link SignalingMessage}s in the JSON format of ProjectRTC or in a compact
+ * binary frame.
+ *
+ * JSON: outbound {to, type, payload}, inbound {from, type, payload} with payload
+ * {type, sdp} for descriptions, {id, label, candidate} for a candidate and
+ * {candidates: [...]} for a batch. "seq", "peerSeq" and "peerEpoch" numbers are
+ * added when set.
+ *
+ * Binary, all strings as a varint byte length followed by UTF-8:
+ * <pre>
+ *   byte    version (1)
+ *   byte    kind: 1 init, 2 offer, 3 answer, 4 candidate, 5 candidates
+ *   byte    flags: bit 0 set when a sequence number follows, bit 1 for a peer one,
+ *           bit 2 for a peer epoch
+ *   varint  sequence number, see {@link SignalingReplayRing}, if flagged
+ *   varint  peer sequence number, see {@link SignalingOutbox}, if flagged
+ *   varint  peer epoch, if flagged
+ *   string  peer id: recipient when sent, sender when received
+ *   offer / answer:        string sdp
+ *   candidate / candidates: varint count, then count times
+ *                           string sdpMid, varint sdpMLineIndex, string sdp
+ * </pre>
+ * The binary form is only used once the server has accepted it, see
+ * {@link #CAPABILITY_BINARY}. The encoder reuses one buffer; an instance is
+ * thread safe but encodes one message at a time.
+ */
+public class SignalingCodec {
+    /** Key of the "capabilities" event, true when the binary format is supported. */
+    public static final String CAPABILITY_BINARY = "binary";
+
+    static final int VERSION = 1;
+    private static final int KIND_INIT = 1;
+    private static final int KIND_OFFER = 2;
+    private static final int KIND_ANSWER = 3;
+    private static final int KIND_CANDIDATE = 4;
+    private static final int KIND_CANDIDATES = 5;
+    private static final int FLAG_SEQ = 1;
+    private static final int FLAG_PEER_SEQ = 2;
+    private static final int FLAG_PEER_EPOCH = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer = new byte[4096];
+    private int position;
+
+    /**
+     * @return the outbound JSON form {to, type, payload}
+     */
+    public static JSONObject toJson(SignalingMessage message) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("to", message.peerId);
+        json.put("type", message.type);
+        if (message.seq > 0) {
+            json.put("seq", message.seq);
+        }
+        if (message.peerSeq > 0) {
+            json.put("peerSeq", message.peerSeq);
+        }
+        if (message.peerEpoch > 0) {
+            json.put("peerEpoch", message.peerEpoch);
+        }
+        JSONObject payload = payloadToJson(message);
+        if (payload != null) {
+            json.put("payload", payload);
+        }
+        return json;
+    }
+
+    /**
+     * @return the payload object of a message, null for "init"
+     */
+    public static JSONObject payloadToJson(SignalingMessage message) throws JSONException {
+        switch (message.kind) {
+            case OFFER:
+            case ANSWER:
+                JSONObject description = new JSONObject();
+                description.put("type", message.type);
+                description.put("sdp", message.sdp);
+                return description;
+            case CANDIDATE:
+                return candidateToJson(message.candidates.get(0));
+            case CANDIDATES:
+                JSONArray array = new JSONArray();
+                for (SignalingMessage.Candidate candidate : message.candidates) {
+                    array.put(candidateToJson(candidate));
+                }
+                JSONObject payload = new JSONObject();
+                payload.put("candidates", array);
+                return payload;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decode the inbound JSON form {from, type, payload}.
+     * @param into message to fill, cleared first
+     * @return into
+     */
+    public static SignalingMessage fromJson(JSONObject json, SignalingMessage into) throws JSONException {
+        into.clear();
+        into.peerId = json.getString("from");
+        into.type = json.getString("type");
+        into.kind = SignalingMessage.Kind.of(into.type);
+        into.seq = json.optLong("seq", 0);
+        into.peerSeq = json.optLong("peerSeq", 0);
+        into.peerEpoch = json.optLong("peerEpoch", 0);
+        switch (into.kind) {
+            case OFFER:
+            case ANSWER:
+                into.sdp = json.getJSONObject("payload").getString("sdp");
+                break;
+            case CANDIDATE:
+                into.candidates.add(candidateFromJson(json.getJSONObject("payload")));
+                break;
+            case CANDIDATES:
+                JSONArray array = json.getJSONObject("payload").getJSONArray("candidates");
+                for (int i = 0; i < array.length(); i++) {
+                    into.candidates.add(candidateFromJson(array.getJSONObject(i)));
+                }
+                break;
+            default:
+                break;
+        }
+        return into;
+    }
+
+    private static JSONObject candidateToJson(SignalingMessage.Candidate candidate) throws JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("label", candidate.sdpMLineIndex);
+        payload.put("id", candidate.sdpMid);
+        payload.put("candidate", candidate.sdp);
+        return payload;
+    }
+
+    private static SignalingMessage.Candidate candidateFromJson(JSONObject payload) throws JSONException {
+        return new SignalingMessage.Candidate(
+                payload.getString("id"),
+                payload.getInt("label"),
+                payload.getString("candidate"));
+    }
+
+    /**
+     * @return the binary frame of a message
+     * @throws IllegalArgumentException if the type has no binary form
+     */
+    public synchronized byte[] encode(SignalingMessage message) {
+        position = 0;
+        writeByte(VERSION);
+        writeByte(kindOf(message.kind));
+        writeByte((message.seq > 0 ? FLAG_SEQ : 0) | (message.peerSeq > 0 ? FLAG_PEER_SEQ : 0)
+                | (message.peerEpoch > 0 ? FLAG_PEER_EPOCH : 0));
+        if (message.seq > 0) {
+            writeVarint(message.seq);
+        }
+        if (message.peerSeq > 0) {
+            writeVarint(message.peerSeq);
+        }
+        if (message.peerEpoch > 0) {
+            writeVarint(message.peerEpoch);
+        }
+        writeString(message.peerId);
+        if (message.isDescription()) {
+            writeString(message.sdp);
+        } else if (message.kind != SignalingMessage.Kind.INIT) {
+            List<SignalingMessage.Candidate> candidates = message.candidates;
+            writeVarint(candidates.size());
+            for (int i = 0; i < candidates.size(); i++) {
+                SignalingMessage.Candidate candidate = candidates.get(i);
+                writeString(candidate.sdpMid);
+                writeVarint(candidate.sdpMLineIndex);
+                writeString(candidate.sdp);
+            }
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Decode a binary frame.
+     * @param into message to fill, cleared first
+     * @return into
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public static SignalingMessage decode(byte[] frame, SignalingMessage into) {
+        Reader reader = new Reader(frame);
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported signaling frame version " + version);
+        }
+        into.clear();
+        into.kind = kindOf(reader.readByte());
+        into.type = into.kind.type;
+        int flags = reader.readByte();
+        if ((flags & FLAG_SEQ) != 0) {
+            into.seq = reader.readVarlong();
+        }
+        if ((flags & FLAG_PEER_SEQ) != 0) {
+            into.peerSeq = reader.readVarlong();
+        }
+        if ((flags & FLAG_PEER_EPOCH) != 0) {
+            into.peerEpoch = reader.readVarlong();
+        }
+        into.peerId = reader.readString();
+        if (into.isDescription()) {
+            into.sdp = reader.readString();
+        } else if (into.kind != SignalingMessage.Kind.INIT) {
+            int count = reader.readVarint();
+            for (int i = 0; i < count; i++) {
+                String sdpMid = reader.readString();
+                int sdpMLineIndex = reader.readVarint();
+                into.candidates.add(new SignalingMessage.Candidate(sdpMid, sdpMLineIndex, reader.readString()));
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Read the kind of a frame without decoding it.
+     * @return the kind, UNKNOWN if the frame is too short or of another version
+     */
+    public static SignalingMessage.Kind peekKind(byte[] frame) {
+        if (frame.length < 2 || frame[0] != VERSION) {
+            return SignalingMessage.Kind.UNKNOWN;
+        }
+        try {
+            return kindOf(frame[1]);
+        } catch (IllegalArgumentException e) {
+            return SignalingMessage.Kind.UNKNOWN;
+        }
+    }
+
+    /** @return true if the type has a binary form */
+    public static boolean isEncodable(String type) {
+        return SignalingMessage.Kind.of(type) != SignalingMessage.Kind.UNKNOWN;
+    }
+
+    private static int kindOf(SignalingMessage.Kind kind) {
+        switch (kind) {
+            case INIT:
+                return KIND_INIT;
+            case OFFER:
+                return KIND_OFFER;
+            case ANSWER:
+                return KIND_ANSWER;
+            case CANDIDATE:
+                return KIND_CANDIDATE;
+            case CANDIDATES:
+                return KIND_CANDIDATES;
+            default:
+                throw new IllegalArgumentException("No binary form for " + kind);
+        }
+    }
+
+    private static SignalingMessage.Kind kindOf(int kind) {
+        switch (kind) {
+            case KIND_INIT:
+                return SignalingMessage.Kind.INIT;
+            case KIND_OFFER:
+                return SignalingMessage.Kind.OFFER;
+            case KIND_ANSWER:
+                return SignalingMessage.Kind.ANSWER;
+            case KIND_CANDIDATE:
+                return SignalingMessage.Kind.CANDIDATE;
+            case KIND_CANDIDATES:
+                return SignalingMessage.Kind.CANDIDATES;
+            default:
+                throw new IllegalArgumentException("Unknown signaling frame kind " + kind);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    // UTF-8 is written straight into the buffer, behind a length prefix sized for
+    // the worst case and compacted afterwards, to avoid an intermediate byte[].
+    private void writeString(String value) {
+        if (value == null) {
+            value = "";
+        }
+        int length = value.length();
+        int maxBytes = length * 3;
+        int prefixSize = varintSize(maxBytes);
+        ensureCapacity(prefixSize + maxBytes);
+        int start = position + prefixSize;
+        int out = start;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[out++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[out++] = (byte) (0xC0 | (c >> 6));
+                buffer[out++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[out++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[out++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[out++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[out++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[out++] = (byte) (0xE0 | (c >> 12));
+                buffer[out++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[out++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        int byteLength = out - start;
+        writeVarint(byteLength);
+        if (position != start) {
+            System.arraycopy(buffer, start, buffer, position, byteLength);
+        }
+        position += byteLength;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static final class Reader {
+        private final byte[] frame;
+        private int position;
+
+        private Reader(byte[] frame) {
+            this.frame = frame;
+        }
+
+        private int readByte() {
+            if (position >= frame.length) {
+                throw new IllegalArgumentException("Truncated signaling frame");
+            }
+            return frame[position++] & 0xFF;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in signaling frame");
+        }
+
+        private long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in signaling frame");
+        }
+
+        private String readString() {
+            int length = readVarint();
+            if (length < 0 || position + length > frame.length) {
+                throw new IllegalArgumentException("Truncated signaling frame");
+            }
+            String value = new String(frame, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
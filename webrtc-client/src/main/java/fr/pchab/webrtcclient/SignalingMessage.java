@@ -0,0 +1,120 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A signaling message exchanged with a remote peer, independent of its wire format.
+ *
+ * peerId is the recipient of an outbound message and the sender of an inbound one.
+ * Only the fields of the message type are set: sdp for "offer" and "answer", the
+ * candidate list for "candidate" (one entry) and "candidates". kind is the type
+ * as an enum, set with it by the constructors and the codec, for switch dispatch.
+ *
+ * See {@link SignalingCodec} for the JSON and binary encodings.
+ */
+public final class SignalingMessage {
+    public static final String TYPE_INIT = "init";
+    public static final String TYPE_OFFER = "offer";
+    public static final String TYPE_ANSWER = "answer";
+    public static final String TYPE_CANDIDATE = "candidate";
+    public static final String TYPE_CANDIDATES = "candidates";
+
+    /**
+     * The known message types, UNKNOWN for any other.
+     */
+    public enum Kind {
+        INIT(TYPE_INIT), OFFER(TYPE_OFFER), ANSWER(TYPE_ANSWER), CANDIDATE(TYPE_CANDIDATE),
+        CANDIDATES(TYPE_CANDIDATES), UNKNOWN(null);
+
+        public final String type;
+
+        Kind(String type) {
+            this.type = type;
+        }
+
+        public static Kind of(String type) {
+            if (type == null) {
+                return UNKNOWN;
+            }
+            switch (type) {
+                case TYPE_INIT:
+                    return INIT;
+                case TYPE_OFFER:
+                    return OFFER;
+                case TYPE_ANSWER:
+                    return ANSWER;
+                case TYPE_CANDIDATE:
+                    return CANDIDATE;
+                case TYPE_CANDIDATES:
+                    return CANDIDATES;
+                default:
+                    return UNKNOWN;
+            }
+        }
+    }
+
+    public String peerId;
+    public String type;
+    public Kind kind = Kind.UNKNOWN;
+    public String sdp;
+    // number given by the sender's replay ring, 0 if none
+    public long seq;
+    // number given by the sender's outbox for this recipient, 0 if none
+    public long peerSeq;
+    // restarts peerSeq: a new epoch each time the sender's outbox starts over with the recipient, 0 if none
+    public long peerEpoch;
+    public final List<Candidate> candidates = new ArrayList<>(1);
+
+    /**
+     * An ICE candidate, field for field as in org.webrtc.IceCandidate.
+     */
+    public static final class Candidate {
+        public final String sdpMid;
+        public final int sdpMLineIndex;
+        public final String sdp;
+
+        public Candidate(String sdpMid, int sdpMLineIndex, String sdp) {
+            this.sdpMid = sdpMid;
+            this.sdpMLineIndex = sdpMLineIndex;
+            this.sdp = sdp;
+        }
+    }
+
+    public SignalingMessage() {}
+
+    public SignalingMessage(String peerId, String type) {
+        this.peerId = peerId;
+        this.type = type;
+        this.kind = Kind.of(type);
+    }
+
+    /** @return a description message, type is "offer" or "answer" */
+    public static SignalingMessage description(String peerId, String type, String sdp) {
+        SignalingMessage message = new SignalingMessage(peerId, type);
+        message.sdp = sdp;
+        return message;
+    }
+
+    /** @return true for "offer" and "answer" */
+    public boolean isDescription() {
+        return kind == Kind.OFFER || kind == Kind.ANSWER;
+    }
+
+    /** Clear every field so the instance can be reused. */
+    public void clear() {
+        peerId = null;
+        type = null;
+        kind = Kind.UNKNOWN;
+        sdp = null;
+        seq = 0;
+        peerSeq = 0;
+        peerEpoch = 0;
+        candidates.clear();
+    }
+
+    @Override
+    public String toString() {
+        return type + (candidates.isEmpty() ? "" : "(" + candidates.size() + ")") + " " + peerId;
+    }
+}
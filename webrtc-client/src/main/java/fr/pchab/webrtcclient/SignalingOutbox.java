@@ -0,0 +1,233 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per peer queue of outbound signaling messages, flushed on the executor.
+ *
+ * While messages wait, either for the flush task or for the transport to come back,
+ * stale ones are dropped: a newer description of the same type replaces a queued
+ * one, a new offer also drops the candidates queued for the offer it replaces, and
+ * a candidate already queued is not queued twice. "init", offers and answers of a
+ * peer are always sent before its queued candidates.
+ *
+ * Sent messages get a per peer sequence number and epoch. The epoch changes each
+ * time the numbering starts over, i.e. when the peer was removed, or when the
+ * application restarted. On the receive side {@link #isDuplicate(SignalingMessage)}
+ * drops messages already seen from a peer in its current epoch, e.g. sent again
+ * after a signaling session was resumed, and those of an older epoch.
+ */
+public class SignalingOutbox {
+
+    /**
+     * Emits the messages, called on the executor thread in queue order.
+     */
+    public interface Sender {
+        void send(SignalingMessage message);
+    }
+
+    private static final class PeerQueue {
+        private final ArrayDeque<SignalingMessage> control = new ArrayDeque<>(2);
+        private final ArrayDeque<SignalingMessage> candidates = new ArrayDeque<>();
+        private final long epoch;
+        private long nextSeq = 1;
+        private long receivedEpoch = 0;
+        private long lastReceivedSeq = 0;
+
+        private PeerQueue(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    private final Executor executor;
+    private final Sender sender;
+    private final Map<String, PeerQueue> queues = new HashMap<>();
+    private boolean paused = false;
+    private boolean flushPosted = false;
+    // epochs are milliseconds since 1970, unique and growing within the process and across restarts
+    private long lastEpoch = 0;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * @param executor runs the flush task, the peer connection executor in WebRtcClient
+     * @param sender emits the messages
+     */
+    public SignalingOutbox(Executor executor, Sender sender) {
+        this.executor = executor;
+        this.sender = sender;
+    }
+
+    /**
+     * Queue a message for its peer. May be called on any thread.
+     */
+    public synchronized void enqueue(SignalingMessage message) {
+        PeerQueue queue = queueOf(message.peerId);
+        if (message.kind == SignalingMessage.Kind.CANDIDATE || message.kind == SignalingMessage.Kind.CANDIDATES) {
+            if (isQueued(queue, message)) {
+                superseded.incrementAndGet();
+                return;
+            }
+            queue.candidates.add(message);
+        } else {
+            if (message.isDescription()) {
+                boolean replaced = false;
+                Iterator<SignalingMessage> it = queue.control.iterator();
+                while (it.hasNext()) {
+                    if (message.kind == it.next().kind) {
+                        it.remove();
+                        superseded.incrementAndGet();
+                        replaced = true;
+                    }
+                }
+                //the candidates queued after the stale offer belong to it
+                if (replaced && message.kind == SignalingMessage.Kind.OFFER) {
+                    superseded.addAndGet(queue.candidates.size());
+                    queue.candidates.clear();
+                }
+            }
+            queue.control.add(message);
+        }
+        postFlush();
+    }
+
+    /**
+     * Hold the messages while the transport is disconnected, or send them again.
+     */
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        postFlush();
+    }
+
+    /**
+     * @return true if a message with this per peer sequence number was already received
+     * from its sender in the same epoch, or if it belongs to an older epoch
+     */
+    public synchronized boolean isDuplicate(SignalingMessage message) {
+        if (message.peerSeq <= 0) {
+            return false;
+        }
+        PeerQueue queue = queueOf(message.peerId);
+        if (message.peerEpoch > queue.receivedEpoch) {
+            //the sender starts over with us
+            queue.receivedEpoch = message.peerEpoch;
+            queue.lastReceivedSeq = 0;
+        }
+        if (message.peerEpoch < queue.receivedEpoch || message.peerSeq <= queue.lastReceivedSeq) {
+            duplicates.incrementAndGet();
+            return true;
+        }
+        queue.lastReceivedSeq = message.peerSeq;
+        return false;
+    }
+
+    /**
+     * Drop the queued messages of a peer whose negotiation restarts, keeping its
+     * sequence numbers.
+     */
+    public synchronized void discard(String peerId) {
+        PeerQueue queue = queues.get(peerId);
+        if (queue != null) {
+            superseded.addAndGet(queue.control.size() + queue.candidates.size());
+            queue.control.clear();
+            queue.candidates.clear();
+        }
+    }
+
+    /**
+     * Drop the queued messages and sequence numbers of a peer that went away. The
+     * next messages to the peer start a new epoch.
+     */
+    public synchronized void removePeer(String peerId) {
+        PeerQueue queue = queues.remove(peerId);
+        if (queue != null) {
+            superseded.addAndGet(queue.control.size() + queue.candidates.size());
+        }
+    }
+
+    /** @return messages handed to the transport */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /** @return queued messages dropped because a newer or identical one replaced them */
+    public long getSuperseded() {
+        return superseded.get();
+    }
+
+    /** @return received messages dropped because they were already received */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    private PeerQueue queueOf(String peerId) {
+        PeerQueue queue = queues.get(peerId);
+        if (queue == null) {
+            lastEpoch = Math.max(System.currentTimeMillis(), lastEpoch + 1);
+            queue = new PeerQueue(lastEpoch);
+            queues.put(peerId, queue);
+        }
+        return queue;
+    }
+
+    private static boolean isQueued(PeerQueue queue, SignalingMessage message) {
+        if (message.candidates.size() != 1) {
+            return false;
+        }
+        String sdp = message.candidates.get(0).sdp;
+        for (SignalingMessage queued : queue.candidates) {
+            if (queued.candidates.size() == 1 && sdp.equals(queued.candidates.get(0).sdp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void postFlush() {
+        if (paused || flushPosted) {
+            return;
+        }
+        flushPosted = true;
+        executor.execute(flush);
+    }
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<SignalingMessage> batch = new ArrayList<>();
+            synchronized (SignalingOutbox.this) {
+                flushPosted = false;
+                if (paused) {
+                    return;
+                }
+                for (PeerQueue queue : queues.values()) {
+                    drainInto(queue.control, queue, batch);
+                    drainInto(queue.candidates, queue, batch);
+                }
+            }
+            //the flush task is the only sender, so messages leave in queue order
+            for (SignalingMessage message : batch) {
+                sender.send(message);
+            }
+            sent.addAndGet(batch.size());
+        }
+    };
+
+    private static void drainInto(ArrayDeque<SignalingMessage> messages, PeerQueue queue,
+                                  List<SignalingMessage> batch) {
+        SignalingMessage message;
+        while ((message = messages.poll()) != null) {
+            message.peerSeq = queue.nextSeq++;
+            message.peerEpoch = queue.epoch;
+            batch.add(message);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package fr.pchab.webrtcclient;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves inbound signaling messages from the transport thread to the peer executor
+ * in three stages:
+ * <ol>
+ *   <li>receive: the raw JSONObject or byte[] frame is queued, the transport thread
+ *   never parses it;</li>
+ *   <li>decode: a dedicated thread turns frames into {@link SignalingMessage}s;</li>
+ *   <li>dispatch: decoded messages are handled on the executor by one drain task.</li>
+ * </ol>
+ * When the executor falls behind, the decode thread waits for room in the bounded
+ * dispatch queue and the receive queue fills up. Receiving never blocks the socket
+ * read loop: a new candidate frame is then dropped, and any other frame evicts the
+ * oldest queued candidate, as losing a description would stall its call setup for
+ * good. Both are counted. When no candidate is left to evict, the frame is queued
+ * beyond the capacity; there are only a few descriptions and control frames per
+ * call. Frames of a peer that are kept stay in arrival order.
+ *
+ * Frames and their messages are pooled: once the pipeline is warm, a message costs
+ * no allocation besides its decoded strings. A message given to the handler is only
+ * valid during the call and must not be kept.
+ */
+public class SignalingPipeline {
+    private static final String TAG = "SignalingPipeline";
+    // messages handled per executor task before yielding to other tasks
+    private static final int MAX_MESSAGES_PER_DRAIN = 32;
+
+    /**
+     * Receives the decoded messages.
+     */
+    public interface Handler {
+        /** Called on the decode thread, keep it short, e.g. to timestamp a message. */
+        void onDecoded(SignalingMessage message);
+
+        /**
+         * Called on the executor thread, in arrival order.
+         * @return false if the message was rejected, e.g. of an unknown type
+         */
+        boolean onMessage(SignalingMessage message);
+    }
+
+    private static final class Frame {
+        private Object data;
+        private boolean candidate;
+        private long receivedNanos;
+        private final SignalingMessage message = new SignalingMessage();
+        private long decodedNanos;
+    }
+
+    private final Executor executor;
+    private final Handler handler;
+    private final BlockingQueue<Frame> received;
+    private final int receiveCapacity;
+    private final BlockingQueue<Frame> decoded;
+    // recycled frames, at most one per queue slot
+    private final ArrayDeque<Frame> framePool;
+    private final int framePoolCapacity;
+    private final AtomicBoolean drainPosted = new AtomicBoolean();
+    private final Thread decodeThread;
+    private volatile boolean stopped = false;
+
+    private final AtomicLong receivedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong evictedFrames = new AtomicLong();
+    private final AtomicLong malformedFrames = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    private final LatencyHistogram receiveWait = new LatencyHistogram();
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram dispatchWait = new LatencyHistogram();
+    private final LatencyHistogram handleTime = new LatencyHistogram();
+
+    /**
+     * @param executor runs the drain task, it must queue the task rather than run it inline
+     * @param receiveCapacity frames waiting to be decoded before candidates are dropped
+     * @param dispatchCapacity decoded messages waiting for the executor before decoding pauses
+     */
+    public SignalingPipeline(Executor executor, int receiveCapacity, int dispatchCapacity, Handler handler) {
+        this.executor = executor;
+        this.handler = handler;
+        // bounded by receive(), so frames other than candidates can go beyond the capacity
+        this.received = new LinkedBlockingQueue<>();
+        this.receiveCapacity = receiveCapacity;
+        this.decoded = new ArrayBlockingQueue<>(dispatchCapacity);
+        // one more than the queues for the frame being decoded
+        this.framePoolCapacity = receiveCapacity + dispatchCapacity + 1;
+        this.framePool = new ArrayDeque<>(framePoolCapacity);
+        decodeThread = new Thread(decodeLoop, "SignalingDecode");
+        decodeThread.setDaemon(true);
+        decodeThread.start();
+    }
+
+    /**
+     * Queue a raw "message" event, a JSONObject or a binary frame, without blocking.
+     * When the receive queue is full, a candidate frame is dropped and any other frame
+     * evicts the oldest queued candidate.
+     * @return false if the frame was dropped
+     */
+    public boolean receive(Object data) {
+        receivedFrames.incrementAndGet();
+        if (stopped) {
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+        Frame frame = obtainFrame();
+        frame.data = data;
+        frame.candidate = isCandidate(data);
+        frame.receivedNanos = System.nanoTime();
+        if (received.size() >= receiveCapacity) {
+            if (frame.candidate) {
+                recycle(frame);
+                droppedFrames.incrementAndGet();
+                return false;
+            }
+            evictCandidate();
+        }
+        received.add(frame);
+        return true;
+    }
+
+    private void evictCandidate() {
+        for (Frame queued : received) {
+            if (queued.candidate) {
+                // false if the decode thread took it meanwhile, which made room as well
+                if (received.remove(queued)) {
+                    recycle(queued);
+                    evictedFrames.incrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    // peeks at the type of a frame not yet decoded, a malformed one is not a candidate
+    private static boolean isCandidate(Object data) {
+        SignalingMessage.Kind kind;
+        if (data instanceof byte[]) {
+            kind = SignalingCodec.peekKind((byte[]) data);
+        } else if (data instanceof JSONObject) {
+            kind = SignalingMessage.Kind.of(((JSONObject) data).optString("type", null));
+        } else {
+            return false;
+        }
+        return kind == SignalingMessage.Kind.CANDIDATE || kind == SignalingMessage.Kind.CANDIDATES;
+    }
+
+    /** Stop the decode thread. Queued frames are discarded. */
+    public void shutdown() {
+        stopped = true;
+        decodeThread.interrupt();
+        received.clear();
+    }
+
+    private Frame obtainFrame() {
+        synchronized (framePool) {
+            Frame frame = framePool.poll();
+            return frame != null ? frame : new Frame();
+        }
+    }
+
+    private void recycle(Frame frame) {
+        frame.data = null;
+        frame.message.clear();
+        synchronized (framePool) {
+            if (framePool.size() < framePoolCapacity) {
+                framePool.add(frame);
+            }
+        }
+    }
+
+    private final Runnable decodeLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    Frame frame = received.take();
+                    long start = System.nanoTime();
+                    receiveWait.record(start - frame.receivedNanos);
+                    try {
+                        decode(frame.data, frame.message);
+                    } catch (JSONException | IllegalArgumentException | ClassCastException e) {
+                        malformedFrames.incrementAndGet();
+                        Log.w(TAG, "Malformed signaling message", e);
+                        recycle(frame);
+                        continue;
+                    }
+                    frame.data = null;
+                    frame.decodedNanos = System.nanoTime();
+                    decodeTime.record(frame.decodedNanos - start);
+                    handler.onDecoded(frame.message);
+                    decoded.put(frame);
+                    if (drainPosted.compareAndSet(false, true)) {
+                        executor.execute(dispatchDrain);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            }
+        }
+    };
+
+    private static void decode(Object data, SignalingMessage into) throws JSONException {
+        if (data instanceof byte[]) {
+            SignalingCodec.decode((byte[]) data, into);
+        } else {
+            SignalingCodec.fromJson((JSONObject) data, into);
+        }
+    }
+
+    // single instance posted at most once at a time, so a burst costs one executor task
+    private final Runnable dispatchDrain = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_MESSAGES_PER_DRAIN; i++) {
+                Frame frame = decoded.poll();
+                if (frame == null) {
+                    break;
+                }
+                if (!stopped) {
+                    long start = System.nanoTime();
+                    dispatchWait.record(start - frame.decodedNanos);
+                    if (!handler.onMessage(frame.message)) {
+                        rejectedMessages.incrementAndGet();
+                    }
+                    handleTime.record(System.nanoTime() - start);
+                }
+                recycle(frame);
+            }
+            drainPosted.set(false);
+            if (!decoded.isEmpty() && drainPosted.compareAndSet(false, true)) {
+                //queued behind the other tasks
+                executor.execute(this);
+            }
+        }
+    };
+
+    /** @return a snapshot of the counters and stage timings */
+    public Metrics getMetrics() {
+        return new Metrics(receivedFrames.get(), droppedFrames.get(), evictedFrames.get(), malformedFrames.get(),
+                rejectedMessages.get(), received.size(),
+                receiveWait.snapshot(), decodeTime.snapshot(), dispatchWait.snapshot(), handleTime.snapshot());
+    }
+
+    public static final class Metrics {
+        /** "message" events given to the pipeline. */
+        public final long received;
+        /** Candidate events dropped because the receive queue was full. */
+        public final long dropped;
+        /** Queued candidate events evicted to make room for a description or another control event. */
+        public final long evicted;
+        /** Events that could not be decoded. */
+        public final long malformed;
+        /** Messages the handler rejected, e.g. of an unknown type. */
+        public final long rejected;
+        /** Events waiting to be decoded, it may exceed the capacity when no candidate is left to evict. */
+        public final int receiveQueueDepth;
+        /** Time from reception to the start of decoding. */
+        public final LatencyHistogram.Snapshot receiveWait;
+        /** Time spent decoding. */
+        public final LatencyHistogram.Snapshot decodeTime;
+        /** Time from the end of decoding to the start of handling on the executor. */
+        public final LatencyHistogram.Snapshot dispatchWait;
+        /** Time spent handling a message on the executor. */
+        public final LatencyHistogram.Snapshot handleTime;
+
+        private Metrics(long received, long dropped, long evicted, long malformed, long rejected, int receiveQueueDepth,
+                        LatencyHistogram.Snapshot receiveWait, LatencyHistogram.Snapshot decodeTime,
+                        LatencyHistogram.Snapshot dispatchWait, LatencyHistogram.Snapshot handleTime) {
+            this.received = received;
+            this.dropped = dropped;
+            this.evicted = evicted;
+            this.malformed = malformed;
+            this.rejected = rejected;
+            this.receiveQueueDepth = receiveQueueDepth;
+            this.receiveWait = receiveWait;
+            this.decodeTime = decodeTime;
+            this.dispatchWait = dispatchWait;
+            this.handleTime = handleTime;
+        }
+
+        @Override
+        public String toString() {
+            return "received " + received + ", dropped " + dropped + ", evicted " + evicted + ", malformed " + malformed
+                    + ", rejected " + rejected + ", depth " + receiveQueueDepth + "; receive wait [" + receiveWait
+                    + "], decode [" + decodeTime + "], dispatch wait [" + dispatchWait
+                    + "], handle [" + handleTime + "]";
+        }
+    }
+}
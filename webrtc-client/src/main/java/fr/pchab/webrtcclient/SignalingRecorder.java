@@ -0,0 +1,99 @@
+package fr.pchab.webrtcclient;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the signaling messages of a {@link WebRtcClient} to a stream, to be read
+ * back by {@link SignalingRecording} and replayed by {@link SignalingReplay}.
+ *
+ * The format is compact: a header, then per record
+ * <pre>
+ *   byte    kind: 0 inbound message, 1 outbound message, 2 id given by the server
+ *   varint  microseconds since the previous record
+ *   varint  length
+ *   bytes   {@link SignalingCodec} binary frame, or the UTF-8 id
+ * </pre>
+ * Records may come from any thread. The first write error stops the recording.
+ */
+public class SignalingRecorder {
+    private static final String TAG = "SignalingRecorder";
+    static final byte[] MAGIC = {'A', 'R', 'T', 'C', 'S', 'I', 'G', 1};
+    static final int KIND_INBOUND = 0;
+    static final int KIND_OUTBOUND = 1;
+    static final int KIND_ID = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+    private final SignalingCodec codec = new SignalingCodec();
+    private long lastNanos;
+    private long records = 0;
+    private boolean failed = false;
+
+    /**
+     * @throws IOException if the header cannot be written
+     */
+    public SignalingRecorder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.out.write(MAGIC);
+        lastNanos = System.nanoTime();
+    }
+
+    public void recordInbound(SignalingMessage message) {
+        record(KIND_INBOUND, message, null);
+    }
+
+    public void recordOutbound(SignalingMessage message) {
+        record(KIND_OUTBOUND, message, null);
+    }
+
+    public void recordId(String id) {
+        record(KIND_ID, null, id);
+    }
+
+    /** @return number of records written */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /** Flush and close the stream. */
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing the recording failed", e);
+        }
+        failed = true;
+    }
+
+    private synchronized void record(int kind, SignalingMessage message, String id) {
+        if (failed) {
+            return;
+        }
+        long now = System.nanoTime();
+        byte[] data = message != null ? codec.encode(message) : id.getBytes(UTF_8);
+        try {
+            out.write(kind);
+            writeVarint((now - lastNanos) / 1000);
+            writeVarint(data.length);
+            out.write(data);
+            lastNanos = now;
+            records++;
+        } catch (IOException e) {
+            Log.w(TAG, "Recording stopped", e);
+            failed = true;
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
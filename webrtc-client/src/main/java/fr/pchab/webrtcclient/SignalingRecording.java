@@ -0,0 +1,130 @@
+package fr.pchab.webrtcclient;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signaling messages read from a {@link SignalingRecorder} stream.
+ */
+public class SignalingRecording {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A recorded message, or the id given by the server.
+     */
+    public static final class Record {
+        public final boolean inbound;
+        /** Time since the start of the recording. */
+        public final long offsetNanos;
+        /** The message, null for an id record. */
+        public final SignalingMessage message;
+        /** The id given by the server, null for a message record. */
+        public final String id;
+
+        private Record(boolean inbound, long offsetNanos, SignalingMessage message, String id) {
+            this.inbound = inbound;
+            this.offsetNanos = offsetNanos;
+            this.message = message;
+            this.id = id;
+        }
+    }
+
+    private final List<Record> records;
+
+    private SignalingRecording(List<Record> records) {
+        this.records = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Read a whole recording. A truncated last record, e.g. from an app that was
+     * killed while recording, is ignored.
+     * @throws IOException if the stream is not a recording or cannot be read
+     */
+    public static SignalingRecording read(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+        for (byte expected : SignalingRecorder.MAGIC) {
+            if (in.read() != (expected & 0xFF)) {
+                throw new IOException("Not a signaling recording");
+            }
+        }
+        List<Record> records = new ArrayList<>();
+        long offsetNanos = 0;
+        int kind;
+        while ((kind = in.read()) != -1) {
+            try {
+                offsetNanos += readVarint(in) * 1000;
+                byte[] data = new byte[(int) readVarint(in)];
+                readFully(in, data);
+                if (kind == SignalingRecorder.KIND_ID) {
+                    records.add(new Record(true, offsetNanos, null, new String(data, UTF_8)));
+                } else {
+                    SignalingMessage message = SignalingCodec.decode(data, new SignalingMessage());
+                    records.add(new Record(kind == SignalingRecorder.KIND_INBOUND, offsetNanos, message, null));
+                }
+            } catch (EOFException e) {
+                break;
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt signaling recording", e);
+            }
+        }
+        return new SignalingRecording(records);
+    }
+
+    /** @return the records in recording order */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /** @return the recorded messages of one direction */
+    public List<SignalingMessage> getMessages(boolean inbound) {
+        List<SignalingMessage> messages = new ArrayList<>();
+        for (Record record : records) {
+            if (record.message != null && record.inbound == inbound) {
+                messages.add(record.message);
+            }
+        }
+        return messages;
+    }
+
+    /** @return the first id given by the server, null if none was recorded */
+    public String getLocalId() {
+        for (Record record : records) {
+            if (record.id != null) {
+                return record.id;
+            }
+        }
+        return null;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in signaling recording");
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int read = 0;
+        while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package fr.pchab.webrtcclient;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+import org.webrtc.StatsObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a {@link SignalingRecording} to a {@link WebRtcClient} whose peer connections
+ * are stubs, to benchmark the signaling pipeline, command dispatch and SDP transforms
+ * on real traffic without native code or network.
+ *
+ * The recorded inbound messages are delivered as binary frames, in order, either as
+ * fast as possible or at their recorded pace. The stub peer connections succeed
+ * immediately and create the descriptions recorded as sent, so the local SDP
+ * transforms run on real descriptions too.
+ */
+public class SignalingReplay {
+    private static final long POLL_INTERVAL_MS = 1;
+    private static final String DEFAULT_LOCAL_ID = "replay";
+
+    /**
+     * Outcome of a replay.
+     */
+    public static final class Result {
+        /** Time from the first message delivered to the last one handled. */
+        public final long elapsedNanos;
+        /** Recorded inbound messages delivered to the client. */
+        public final int inbound;
+        /** Messages sent by the client during the replay. */
+        public final long outbound;
+        /** Recorded outbound messages, to compare with outbound. */
+        public final int recordedOutbound;
+        /** Candidates given to the stub peer connections. */
+        public final long candidatesAdded;
+        public final SignalingPipeline.Metrics signaling;
+        public final LooperExecutor.Metrics executor;
+
+        private Result(long elapsedNanos, int inbound, long outbound, int recordedOutbound, long candidatesAdded,
+                       SignalingPipeline.Metrics signaling, LooperExecutor.Metrics executor) {
+            this.elapsedNanos = elapsedNanos;
+            this.inbound = inbound;
+            this.outbound = outbound;
+            this.recordedOutbound = recordedOutbound;
+            this.candidatesAdded = candidatesAdded;
+            this.signaling = signaling;
+            this.executor = executor;
+        }
+
+        @Override
+        public String toString() {
+            return "replayed " + inbound + " messages in " + (elapsedNanos / 1000) + "us, sent " + outbound
+                    + " (recorded " + recordedOutbound + "), " + candidatesAdded + " candidates added; signaling ["
+                    + signaling + "]; executor [" + executor + "]";
+        }
+    }
+
+    private final SignalingRecording recording;
+    private final PeerConnectionParameters params;
+    private final AtomicLong candidatesAdded = new AtomicLong();
+    // descriptions recorded as sent, handed out by the stubs in order
+    private final Map<SessionDescription.Type, ArrayDeque<String>> localDescriptions = new HashMap<>();
+
+    public SignalingReplay(SignalingRecording recording, PeerConnectionParameters params) {
+        this.recording = recording;
+        this.params = params;
+        localDescriptions.put(SessionDescription.Type.OFFER, new ArrayDeque<String>());
+        localDescriptions.put(SessionDescription.Type.ANSWER, new ArrayDeque<String>());
+        for (SignalingMessage message : recording.getMessages(false)) {
+            if (message.isDescription()) {
+                localDescriptions.get(SessionDescription.Type.fromCanonicalForm(message.type)).add(message.sdp);
+            }
+        }
+    }
+
+    /**
+     * Replay the recording once on a new client, destroyed afterwards.
+     * Must not be called on the main thread when the client executor needs it.
+     *
+     * @param realTime true to keep the recorded delays between inbound messages
+     * @param timeoutMs maximum time to wait for the messages to be handled
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result run(boolean realTime, long timeoutMs) throws InterruptedException {
+        final List<SignalingRecording.Record> inbound = new ArrayList<>();
+        for (SignalingRecording.Record record : recording.getRecords()) {
+            if (record.inbound && record.message != null) {
+                inbound.add(record);
+            }
+        }
+        // encoded up front so the replay measures the client, not the encoder
+        SignalingCodec codec = new SignalingCodec();
+        List<byte[]> frames = new ArrayList<>(inbound.size());
+        for (SignalingRecording.Record record : inbound) {
+            frames.add(codec.encode(record.message));
+        }
+
+        ReplayTransport transport = new ReplayTransport();
+        WebRtcClient client = new WebRtcClient(silentListener, transport, params, stubPeerConnections);
+        try {
+            String localId = recording.getLocalId();
+            transport.deliver(SignalingTransport.EVENT_ID, localId != null ? localId : DEFAULT_LOCAL_ID);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < frames.size(); i++) {
+                if (realTime) {
+                    long delayNanos = inbound.get(i).offsetNanos - inbound.get(0).offsetNanos
+                            - (System.nanoTime() - start);
+                    if (delayNanos > 0) {
+                        Thread.sleep(delayNanos / 1000000, (int) (delayNanos % 1000000));
+                    }
+                }
+                transport.deliver(SignalingTransport.EVENT_MESSAGE, frames.get(i));
+            }
+
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            SignalingPipeline.Metrics metrics = client.getSignalingMetrics();
+            while (metrics.handleTime.getCount() + metrics.dropped + metrics.evicted + metrics.malformed < frames.size()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(POLL_INTERVAL_MS);
+                metrics = client.getSignalingMetrics();
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Result(elapsed, frames.size(), transport.sent.get(), recording.getMessages(false).size(),
+                    candidatesAdded.get(), metrics, client.getExecutorMetrics());
+        } finally {
+            client.onDestroy();
+        }
+    }
+
+    private String nextLocalDescription(SessionDescription.Type type) {
+        synchronized (localDescriptions) {
+            ArrayDeque<String> descriptions = localDescriptions.get(type);
+            String sdp = descriptions.poll();
+            if (sdp == null) {
+                return "v=0\r\no=- 0 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n";
+            }
+            // kept for the next replay of the same recording
+            descriptions.add(sdp);
+            return sdp;
+        }
+    }
+
+    private final PeerConnectionAdapter.Provider stubPeerConnections = new PeerConnectionAdapter.Provider() {
+        @Override
+        public PeerConnectionAdapter createPeerConnection(List<PeerConnection.IceServer> iceServers,
+                                                          MediaConstraints constraints,
+                                                          PeerConnection.Observer observer) {
+            return new StubPeerConnection(observer);
+        }
+    };
+
+    /**
+     * Succeeds at once on the calling thread and follows the signaling states.
+     */
+    private class StubPeerConnection implements PeerConnectionAdapter {
+        private final PeerConnection.Observer observer;
+        private PeerConnection.SignalingState state = PeerConnection.SignalingState.STABLE;
+        private SessionDescription remoteDescription;
+
+        private StubPeerConnection(PeerConnection.Observer observer) {
+            this.observer = observer;
+        }
+
+        @Override
+        public SessionDescription getRemoteDescription() {
+            return remoteDescription;
+        }
+
+        @Override
+        public void createOffer(SdpObserver sdpObserver, MediaConstraints constraints) {
+            sdpObserver.onCreateSuccess(new SessionDescription(SessionDescription.Type.OFFER,
+                    nextLocalDescription(SessionDescription.Type.OFFER)));
+        }
+
+        @Override
+        public void createAnswer(SdpObserver sdpObserver, MediaConstraints constraints) {
+            sdpObserver.onCreateSuccess(new SessionDescription(SessionDescription.Type.ANSWER,
+                    nextLocalDescription(SessionDescription.Type.ANSWER)));
+        }
+
+        @Override
+        public void setLocalDescription(SdpObserver sdpObserver, SessionDescription sdp) {
+            setState(sdp.type == SessionDescription.Type.OFFER
+                    ? PeerConnection.SignalingState.HAVE_LOCAL_OFFER : PeerConnection.SignalingState.STABLE);
+            sdpObserver.onSetSuccess();
+        }
+
+        @Override
+        public void setRemoteDescription(SdpObserver sdpObserver, SessionDescription sdp) {
+            remoteDescription = sdp;
+            setState(sdp.type == SessionDescription.Type.OFFER
+                    ? PeerConnection.SignalingState.HAVE_REMOTE_OFFER : PeerConnection.SignalingState.STABLE);
+            sdpObserver.onSetSuccess();
+        }
+
+        @Override
+        public boolean addIceCandidate(IceCandidate candidate) {
+            candidatesAdded.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean addStream(MediaStream stream) {
+            return true;
+        }
+
+        @Override
+        public void removeStream(MediaStream stream) {}
+
+        @Override
+        public boolean getStats(StatsObserver statsObserver, MediaStreamTrack track) {
+            return false;
+        }
+
+        @Override
+        public PeerConnection.SignalingState signalingState() {
+            return state;
+        }
+
+        @Override
+        public void dispose() {
+            state = PeerConnection.SignalingState.CLOSED;
+        }
+
+        private void setState(PeerConnection.SignalingState newState) {
+            state = newState;
+            observer.onSignalingChange(newState);
+        }
+    }
+
+    /**
+     * Delivers events on the replay thread and counts the messages sent.
+     */
+    private static class ReplayTransport implements SignalingTransport {
+        private final Map<String, List<Listener>> listeners = new HashMap<>();
+        private final AtomicLong sent = new AtomicLong();
+
+        @Override
+        public synchronized void on(String event, Listener listener) {
+            List<Listener> eventListeners = listeners.get(event);
+            if (eventListeners == null) {
+                eventListeners = new ArrayList<>(1);
+                listeners.put(event, eventListeners);
+            }
+            eventListeners.add(listener);
+        }
+
+        @Override
+        public void emit(String event, Object... args) {
+            if (EVENT_MESSAGE.equals(event)) {
+                sent.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void connect() {}
+
+        @Override
+        public void disconnect() {}
+
+        private void deliver(String event, Object... args) {
+            List<Listener> eventListeners;
+            synchronized (this) {
+                eventListeners = listeners.get(event);
+            }
+            if (eventListeners != null) {
+                for (Listener listener : eventListeners) {
+                    listener.call(args);
+                }
+            }
+        }
+    }
+
+    private static final WebRtcClient.RtcListener silentListener = new WebRtcClient.RtcListener() {
+        @Override
+        public void onCallReady(String callId) {}
+
+        @Override
+        public void onStatusChanged(int newStatus) {}
+
+        @Override
+        public void onLocalStream(MediaStream localStream) {}
+
+        @Override
+        public void onAddRemoteStream(MediaStream remoteStream, int endPoint) {}
+
+        @Override
+        public void onRemoveRemoteStream(int endPoint) {}
+    };
+}
@@ -0,0 +1,115 @@
+package fr.pchab.webrtcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded ring of the last outbound signaling messages, kept until the server
+ * acknowledges them so they can be sent again after a reconnection.
+ *
+ * Messages are numbered from 1 in the order they are added. When the ring is full
+ * the oldest message is evicted even if it was not acknowledged; a resume that
+ * needs it is then impossible and {@link #since(long)} returns null.
+ */
+public class SignalingReplayRing {
+    private final Object[] frames;
+    private final long[] seqs;
+    private int head = 0;
+    private int size = 0;
+    private long lastSeq = 0;
+    private long ackedSeq = 0;
+    private long evictedUnacked = 0;
+
+    /**
+     * @param capacity number of unacknowledged messages kept
+     */
+    public SignalingReplayRing(int capacity) {
+        frames = new Object[capacity];
+        seqs = new long[capacity];
+    }
+
+    /** @return the sequence number of the next message */
+    public synchronized long nextSeq() {
+        return lastSeq + 1;
+    }
+
+    /**
+     * Keep an emitted message, the sequence number must be {@link #nextSeq()}.
+     * @param frame the object given to the transport, a JSONObject or a byte[]
+     */
+    public synchronized void add(long seq, Object frame) {
+        if (seq != lastSeq + 1) {
+            throw new IllegalArgumentException("Expected seq " + (lastSeq + 1) + ", got " + seq);
+        }
+        lastSeq = seq;
+        if (size == frames.length) {
+            if (seqs[head] > ackedSeq) {
+                evictedUnacked++;
+            }
+            head = (head + 1) % frames.length;
+            size--;
+        }
+        int tail = (head + size) % frames.length;
+        frames[tail] = frame;
+        seqs[tail] = seq;
+        size++;
+    }
+
+    /**
+     * Forget the messages up to a sequence number, the server received them.
+     */
+    public synchronized void acknowledge(long seq) {
+        if (seq > lastSeq) {
+            seq = lastSeq;
+        }
+        if (seq <= ackedSeq) {
+            return;
+        }
+        ackedSeq = seq;
+        while (size > 0 && seqs[head] <= seq) {
+            frames[head] = null;
+            head = (head + 1) % frames.length;
+            size--;
+        }
+    }
+
+    /**
+     * @param seq last sequence number received by the server
+     * @return the messages after it, oldest first, or null if some were evicted
+     */
+    public synchronized List<Object> since(long seq) {
+        acknowledge(seq);
+        List<Object> replay = new ArrayList<>(size);
+        if (seq < lastSeq && (size == 0 || seqs[head] > seq + 1)) {
+            return null;
+        }
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % frames.length;
+            if (seqs[index] > seq) {
+                replay.add(frames[index]);
+            }
+        }
+        return replay;
+    }
+
+    /** Forget every message and restart numbering, for a new session. */
+    public synchronized void reset() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = null;
+        }
+        head = 0;
+        size = 0;
+        lastSeq = 0;
+        ackedSeq = 0;
+    }
+
+    /** @return messages kept and not acknowledged */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** @return messages evicted before being acknowledged */
+    public synchronized long getEvictedUnacked() {
+        return evictedUnacked;
+    }
+}
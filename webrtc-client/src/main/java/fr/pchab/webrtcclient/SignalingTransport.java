@@ -0,0 +1,61 @@
+package fr.pchab.webrtcclient;
+
+/**
+ * Channel to the signaling server used by {@link WebRtcClient}.
+ *
+ * The events and arguments are the ones of the socket.io protocol spoken by
+ * ProjectRTC: the server sends "id" with the id of this client and "message"
+ * with {from, type, payload}; the client sends "message" with {to, type, payload}
+ * and "readyToStream" with {name}. Listeners may be called on any thread.
+ *
+ * A server supporting {@link SignalingCodec} frames answers the client's
+ * "capabilities" event with {binary: true}; "message" then carries a byte[]
+ * frame instead of a JSONObject.
+ *
+ * A server supporting session resume acknowledges numbered messages with "ack"
+ * {seq}. After "reconnect", fired by the transport itself, the client sends
+ * "resume" {session, seq} with its first id and last sequence number; the server
+ * answers "resumed" {resumed, ack} with the last sequence number it received,
+ * see {@link SignalingReplayRing}. Without an answer within a few seconds the
+ * client starts a new session under the id of the new connection.
+ *
+ * "connect" and "disconnect" are fired by the transport itself when the
+ * connection to the server is up or lost.
+ */
+public interface SignalingTransport {
+
+    String EVENT_ID = "id";
+    String EVENT_MESSAGE = "message";
+    String EVENT_READY_TO_STREAM = "readyToStream";
+    String EVENT_CAPABILITIES = "capabilities";
+    String EVENT_CONNECT = "connect";
+    String EVENT_DISCONNECT = "disconnect";
+    String EVENT_RECONNECT = "reconnect";
+    String EVENT_ACK = "ack";
+    String EVENT_RESUME = "resume";
+    String EVENT_RESUMED = "resumed";
+
+    /**
+     * Receives the arguments of an event.
+     */
+    interface Listener {
+        void call(Object... args);
+    }
+
+    /**
+     * Register a listener for an event. Call before {@link #connect()}.
+     */
+    void on(String event, Listener listener);
+
+    /**
+     * Send an event to the server.
+     */
+    void emit(String event, Object... args);
+
+    void connect();
+
+    /**
+     * Disconnect and release the transport. It cannot be connected again.
+     */
+    void disconnect();
+}
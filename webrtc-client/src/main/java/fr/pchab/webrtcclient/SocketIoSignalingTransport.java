@@ -0,0 +1,48 @@
+package fr.pchab.webrtcclient;
+
+import com.github.nkzawa.emitter.Emitter;
+import com.github.nkzawa.socketio.client.IO;
+import com.github.nkzawa.socketio.client.Socket;
+
+import java.net.URISyntaxException;
+
+/**
+ * {@link SignalingTransport} over a socket.io connection, the default transport.
+ */
+public class SocketIoSignalingTransport implements SignalingTransport {
+    private final Socket mSocket;
+
+    /**
+     * @param host url of the signaling server, e.g. "http://10.0.0.1:3000/"
+     * @throws URISyntaxException if the url is malformed
+     */
+    public SocketIoSignalingTransport(String host) throws URISyntaxException {
+        mSocket = IO.socket(host);
+    }
+
+    @Override
+    public void on(String event, final Listener listener) {
+        mSocket.on(event, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                listener.call(args);
+            }
+        });
+    }
+
+    @Override
+    public void emit(String event, Object... args) {
+        mSocket.emit(event, args);
+    }
+
+    @Override
+    public void connect() {
+        mSocket.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        mSocket.disconnect();
+        mSocket.close();
+    }
+}
@@ -1,12 +1,17 @@
 package fr.pchab.webrtcclient;
 
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.github.nkzawa.socketio.client.IO;
-import com.github.nkzawa.socketio.client.Socket;
-import com.github.nkzawa.emitter.Emitter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -16,18 +21,64 @@ import org.webrtc.*;
 
 public class WebRtcClient {
     private final static String TAG = WebRtcClient.class.getCanonicalName();
-    private final static int MAX_PEER = 2;
-    private boolean[] endPoints = new boolean[MAX_PEER];
+    private final static int MAX_PEER = 4;
+    private final static int MAX_PENDING_CANDIDATES = 64;
+    private final static int MAX_CANDIDATE_BATCH = 32;
+    private final static int SIGNALING_RECEIVE_CAPACITY = 256;
+    private final static int SIGNALING_DISPATCH_CAPACITY = 64;
+    private final static int SIGNALING_REPLAY_CAPACITY = 128;
+    // time to wait for "resumed" before starting a new session, the server may not support resume
+    private final static long SIGNALING_RESUME_TIMEOUT_MS = 5000;
+    private final static long BANDWIDTH_POLL_INTERVAL_MS = 5000;
+    private final static int BANDWIDTH_MIN_KBPS = 30;
+    private final static float BANDWIDTH_HEADROOM = 1.5f;
+    private final static float BANDWIDTH_CHANGE_THRESHOLD = 0.2f;
+    // minimum time between two renegotiations applying a new bandwidth cap to a peer
+    private final static long BANDWIDTH_RENEGOTIATION_INTERVAL_MS = 10000;
+    private final static String STATS_REPORT_BANDWIDTH = "bweforvideo";
+    private final static String STATS_AVAILABLE_SEND_BANDWIDTH = "googAvailableSendBandwidth";
+    // end point slots, index + 1 is the end point given to RtcListener (0 is localStream)
+    private final boolean[] endPoints = new boolean[MAX_PEER];
     private PeerConnectionFactory factory;
-    private Peer mPeer;
+    // creates the peer connections, set on the executor thread once the factory exists
+    private volatile PeerConnectionAdapter.Provider pcProvider;
+    // peers of the mesh keyed by remote id
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
     private LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<>();
     private PeerConnectionParameters pcParams;
+    // pcParams.videoCodec, or the codec picked for this device when it is VIDEO_CODEC_AUTO
+    private String videoCodec;
+    private SdpTransformChain sdpTransforms;
+    // splits the uplink between peers, null when disabled
+    private BandwidthAllocator bandwidthAllocator;
     private MediaConstraints pcConstraints = new MediaConstraints();
     private MediaStream localMS;
     private VideoSource videoSource;
     private RtcListener mListener;
-    private Socket mSocket;
+    private SignalingTransport mTransport;
+    private SignalingPipeline signalingPipeline;
+    private SignalingOutbox outbox;
+    // idle peer connection with the local stream attached, handed to the next peer, only used on the executor thread
+    private Peer warmPeer;
     private LooperExecutor executor;
+    private final IceCandidateCounters candidateCounters = new IceCandidateCounters();
+    private final CallSetupTracer callSetupTracer = new CallSetupTracer();
+    private volatile LooperExecutor.ScheduledTask bandwidthPollTimer;
+    private final SignalingCodec signalingCodec = new SignalingCodec();
+    // set once the server accepted binary frames
+    private volatile boolean binarySignaling = false;
+    // unacknowledged outbound messages, null when session resume is disabled
+    private SignalingReplayRing replayRing;
+    // first id given by the server, and the one given after the last reconnection
+    private volatile String sessionId;
+    private volatile String reconnectId;
+    // set when the session could not be resumed before the new id arrived, guarded by replayRing
+    private boolean awaitingReconnectId = false;
+    // "resume" was sent, waiting for "resumed" or the timeout
+    private final AtomicBoolean resumePending = new AtomicBoolean();
+    private volatile LooperExecutor.ScheduledTask resumeTimer;
+    // null when not recording
+    private volatile SignalingRecorder recorder;
 
     private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
     private static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
@@ -58,192 +109,581 @@ public class WebRtcClient {
     }
 
     private interface Command{
-        void execute(String peerId, JSONObject payload) throws JSONException;
+        void execute(Peer peer, SignalingMessage message);
     }
 
     private class CreateOfferCommand implements Command{
-        public void execute(String peerId, JSONObject payload) throws JSONException {
+        public void execute(Peer peer, SignalingMessage message) {
             Log.d(TAG,"CreateOfferCommand");
-            mPeer.pc.createOffer(mPeer, pcConstraints);
+            markSetupStart(peer.id, CallSetupTracer.Event.CREATE_OFFER);
+            peer.createOffer();
         }
     }
 
     private class CreateAnswerCommand implements Command{
-        public void execute(String peerId, JSONObject payload) throws JSONException {
+        public void execute(Peer peer, SignalingMessage message) {
             Log.d(TAG, "CreateAnswerCommand");
-            SessionDescription sdp = new SessionDescription(
-                    SessionDescription.Type.fromCanonicalForm(payload.getString("type")),
-                    payload.getString("sdp")
-            );
-            mPeer.pc.setRemoteDescription(mPeer, overrideRemoteDescription(sdp));
-            mPeer.pc.createAnswer(mPeer, pcConstraints);
+            if (peer.makingOffer || peer.pc.signalingState() == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                //glare: both sides offered, only the polite one gives up its offer
+                if (!isPolite(peer.id)) {
+                    Log.d(TAG, "Glare with " + peer.id + ", keeping the local offer");
+                    return;
+                }
+                Log.d(TAG, "Glare with " + peer.id + ", answering its offer");
+                peer.resetConnection();
+            }
+            markSetupStart(peer.id, CallSetupTracer.Event.CREATE_ANSWER);
+            SessionDescription sdp = new SessionDescription(SessionDescription.Type.OFFER, message.sdp);
+            peer.pc.setRemoteDescription(peer, overrideRemoteDescription(peer, sdp));
+            peer.pc.createAnswer(peer, pcConstraints);
         }
     }
 
     private class SetRemoteSDPCommand implements Command{
-        public void execute(String peerId, JSONObject payload) throws JSONException {
+        public void execute(Peer peer, SignalingMessage message) {
             Log.d(TAG,"SetRemoteSDPCommand");
-            SessionDescription sdp = new SessionDescription(
-                    SessionDescription.Type.fromCanonicalForm(payload.getString("type")),
-                    payload.getString("sdp")
-            );
-            mPeer.pc.setRemoteDescription(mPeer, overrideRemoteDescription(sdp));
+            callSetupTracer.mark(peer.id, CallSetupTracer.Event.SET_REMOTE_ANSWER);
+            SessionDescription sdp = new SessionDescription(SessionDescription.Type.ANSWER, message.sdp);
+            peer.pc.setRemoteDescription(peer, overrideRemoteDescription(peer, sdp));
         }
     }
 
-    private SessionDescription overrideRemoteDescription(SessionDescription sdp){
-        String sdpDescription = sdp.description;
-
-        //support audio configuration only
-        if (pcParams.audioStartBitrate > 0){
-            sdpDescription = AppRTCUtils.setStartBitrate(AppRTCUtils.AUDIO_CODEC_OPUS, false, sdpDescription, pcParams.audioStartBitrate);
+    /**
+     * Mark an event that may start the call setup trace of a peer, unless the peer is
+     * connected already: a renegotiation has no CONNECTED event to complete its trace.
+     */
+    private void markSetupStart(String peerId, CallSetupTracer.Event event) {
+        Peer peer = peers.get(peerId);
+        if (peer == null || !peer.iceConnected) {
+            callSetupTracer.mark(peerId, event);
         }
+    }
 
-        if (pcParams.audioCodec.equals(AppRTCUtils.AUDIO_CODEC_ISAC)){
-            sdpDescription = AppRTCUtils.preferCodec(sdpDescription,AppRTCUtils.AUDIO_CODEC_ISAC, true);
+    /**
+     * The peer with the lower id is polite and drops its offer on glare.
+     * There is no rollback in this PeerConnection, so it starts over with a new one.
+     */
+    private boolean isPolite(String remoteId) {
+        String localId = sessionId;
+        return localId == null || localId.compareTo(remoteId) < 0;
+    }
+
+    private SessionDescription overrideRemoteDescription(Peer peer, SessionDescription sdp){
+        //the bitrate asked for in the remote description caps what we send to this peer
+        SdpTransform bandwidthCap = null;
+        if (peer.bandwidthCapKbps > 0) {
+            if (pcParams.videoCallEnabled) {
+                //runs after the chain, so it must not lift the configured maximum
+                int capKbps = pcParams.videoMaxBitrate > 0
+                        ? Math.min(peer.bandwidthCapKbps, pcParams.videoMaxBitrate) : peer.bandwidthCapKbps;
+                bandwidthCap = SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO, videoCodec, capKbps);
+            } else {
+                bandwidthCap = SdpTransforms.maxBitrate(SdpTransforms.MEDIA_AUDIO, null, peer.bandwidthCapKbps);
+            }
         }
-        return new SessionDescription(
-                sdp.type, sdpDescription);
+        return transformDescription(sdp, SdpTransformChain.Direction.REMOTE, bandwidthCap);
+    }
 
+    /**
+     * Run the configured SDP transforms on a description.
+     * The description is parsed and serialized at most once whatever the number of stages.
+     */
+    private SessionDescription transformDescription(SessionDescription sdp, SdpTransformChain.Direction direction,
+                                                    SdpTransform extra){
+        String sdpDescription = sdpTransforms.apply(sdp.description, direction, extra);
+        Log.d(TAG, "SDP transforms " + sdpTransforms.describeLastRun());
+        if (sdpDescription == sdp.description) {
+            return sdp;
+        }
+        return new SessionDescription(sdp.type, sdpDescription);
     }
 
     private class AddIceCandidateCommand implements Command{
-        public void execute(String peerId, JSONObject payload) throws JSONException {
+        public void execute(Peer peer, SignalingMessage message) {
             Log.d(TAG,"AddIceCandidateCommand");
-            if (mPeer.pc.getRemoteDescription() != null) {
-                IceCandidate candidate = new IceCandidate(
-                        payload.getString("id"),
-                        payload.getInt("label"),
-                        payload.getString("candidate")
-                );
-                mPeer.pc.addIceCandidate(candidate);
+            peer.addRemoteIceCandidate(toIceCandidate(message.candidates.get(0)));
+        }
+    }
+
+    private class AddIceCandidatesCommand implements Command{
+        public void execute(Peer peer, SignalingMessage message) {
+            Log.d(TAG,"AddIceCandidatesCommand " + message.candidates.size());
+            for (SignalingMessage.Candidate candidate : message.candidates) {
+                peer.addRemoteIceCandidate(toIceCandidate(candidate));
             }
         }
     }
 
+    private static SignalingMessage.Candidate toCandidate(IceCandidate candidate) {
+        return new SignalingMessage.Candidate(candidate.sdpMid, candidate.sdpMLineIndex, candidate.sdp);
+    }
+
+    private static IceCandidate toIceCandidate(SignalingMessage.Candidate candidate) {
+        return new IceCandidate(candidate.sdpMid, candidate.sdpMLineIndex, candidate.sdp);
+    }
+
     /**
-     * Send a message through the signaling server
+     * Send "init" through the signaling server.
      *
      * @param to id of recipient
-     * @param type type of message
-     * @param payload payload of message
-     * @throws JSONException
+     * @param type type of message, only "init" is accepted
+     * @param payload ignored
+     * @throws JSONException never, kept for existing callers
+     * @throws IllegalArgumentException for any other type: offers, answers and candidates
+     *         are sent by the client itself, with sequence numbers and replay
+     * @deprecated use {@link #call(String)}
      */
+    @Deprecated
     public void sendMessage(String to, String type, JSONObject payload) throws JSONException {
-        JSONObject message = new JSONObject();
-        message.put("to", to);
-        message.put("type", type);
-        message.put("payload", payload);
-        mSocket.emit("message", message);
+        if (!SignalingMessage.TYPE_INIT.equals(type)) {
+            throw new IllegalArgumentException("Only \"init\" can be sent, not " + type);
+        }
+        call(to);
     }
 
-    private class MessageHandler {
-        private HashMap<String, Command> commandMap;
+    /**
+     * Start a call with a peer: send "init" so that it offers, or offer right away
+     * when {@link PeerConnectionParameters#immediateOffer} is set.
+     *
+     * @param to id of the peer
+     */
+    public void call(final String to) {
+        if (!pcParams.immediateOffer) {
+            sendSignal(new SignalingMessage(to, SignalingMessage.TYPE_INIT));
+            return;
+        }
+        markSetupStart(to, CallSetupTracer.Event.INIT);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Peer peer = peers.get(to);
+                if (peer == null) {
+                    peer = addPeer(to);
+                    if (peer == null) {
+                        Log.w(TAG, "No free end point, not calling " + to);
+                        return;
+                    }
+                }
+                if (peer.pc.signalingState() != PeerConnection.SignalingState.STABLE) {
+                    return;
+                }
+                Log.d(TAG, "Offering to " + to);
+                markSetupStart(to, CallSetupTracer.Event.CREATE_OFFER);
+                peer.createOffer();
+            }
+        });
+    }
 
-        private MessageHandler() {
-            this.commandMap = new HashMap<>();
-            commandMap.put("init", new CreateOfferCommand());
-            commandMap.put("offer", new CreateAnswerCommand());
-            commandMap.put("answer", new SetRemoteSDPCommand());
-            commandMap.put("candidate", new AddIceCandidateCommand());
+    /**
+     * Queue a signaling message in the outbox of its peer.
+     */
+    private void sendSignal(SignalingMessage message) {
+        if (message.kind == SignalingMessage.Kind.INIT) {
+            markSetupStart(message.peerId, CallSetupTracer.Event.INIT);
         }
+        outbox.enqueue(message);
+    }
 
-        private Emitter.Listener onMessage = new Emitter.Listener() {
+    /**
+     * Emit a signaling message, as a binary frame if the server accepted them.
+     * Called by the outbox on the executor thread.
+     */
+    private final SignalingOutbox.Sender emitSignal = new SignalingOutbox.Sender() {
+        @Override
+        public void send(SignalingMessage message) {
+            emitSignal(message);
+        }
+    };
+
+    private void emitSignal(SignalingMessage message) {
+        SignalingRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordOutbound(message);
+        }
+        if (replayRing == null) {
+            Object frame = encodeSignal(message);
+            if (frame != null) {
+                mTransport.emit(SignalingTransport.EVENT_MESSAGE, frame);
+            }
+            return;
+        }
+        //numbering, keeping and emitting in one step so the server sees the numbers in order
+        synchronized (replayRing) {
+            message.seq = replayRing.nextSeq();
+            Object frame = encodeSignal(message);
+            if (frame != null) {
+                replayRing.add(message.seq, frame);
+                mTransport.emit(SignalingTransport.EVENT_MESSAGE, frame);
+            }
+        }
+    }
+
+    /**
+     * @return the binary frame or JSONObject to emit, null if the message cannot be encoded
+     */
+    private Object encodeSignal(SignalingMessage message) {
+        if (binarySignaling) {
+            return signalingCodec.encode(message);
+        }
+        try {
+            return SignalingCodec.toJson(message);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Send again the messages the server did not receive before the connection dropped,
+     * or start a new session if it cannot resume.
+     */
+    private void resumeSession(boolean resumed, long ackedSeq) {
+        List<Object> replay = resumed ? replayRing.since(ackedSeq) : null;
+        if (replay == null) {
+            String newId;
+            synchronized (replayRing) {
+                replayRing.reset();
+                newId = reconnectId;
+                //outbound messages go out under the new id, it is adopted when it arrives if not yet here
+                awaitingReconnectId = newId == null;
+                if (newId != null) {
+                    sessionId = newId;
+                }
+            }
+            Log.w(TAG, "Signaling session not resumed, starting over as " + newId);
+            binarySignaling = false;
+            if (pcParams.binarySignaling) {
+                offerCapabilities();
+            }
+            if (newId != null) {
+                mListener.onCallReady(newId);
+            }
+        } else {
+            Log.d(TAG, "Signaling session " + sessionId + " resumed, sending " + replay.size() + " messages again");
+            for (Object frame : replay) {
+                mTransport.emit(SignalingTransport.EVENT_MESSAGE, frame);
+            }
+        }
+        //messages queued meanwhile are numbered after the replayed ones
+        outbox.setPaused(false);
+    }
+
+    /**
+     * Runs the signaling pipeline drain task behind the tasks already queued on the executor,
+     * execute() would run it inline when called on the executor thread.
+     */
+    private final Executor dispatchExecutor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            executor.post(task, LooperExecutor.Lane.NEGOTIATION);
+        }
+    };
+
+    /** Runs the candidate batch windows on the executor. */
+    private final IceCandidateBatcher.Scheduler batchScheduler = new IceCandidateBatcher.Scheduler() {
+        @Override
+        public Future<?> schedule(Runnable task, long delayMs) {
+            return executor.schedule(task, delayMs);
+        }
+    };
+
+    private class MessageHandler implements SignalingPipeline.Handler {
+        private final Command createOffer = new CreateOfferCommand();
+        private final Command createAnswer = new CreateAnswerCommand();
+        private final Command setRemoteSdp = new SetRemoteSDPCommand();
+        private final Command addIceCandidate = new AddIceCandidateCommand();
+        private final Command addIceCandidates = new AddIceCandidatesCommand();
+
+        /** @return the command handling a message kind, null for an unknown one */
+        private Command commandOf(SignalingMessage.Kind kind) {
+            switch (kind) {
+                case INIT:
+                    return createOffer;
+                case OFFER:
+                    return createAnswer;
+                case ANSWER:
+                    return setRemoteSdp;
+                case CANDIDATE:
+                    return addIceCandidate;
+                case CANDIDATES:
+                    return addIceCandidates;
+                default:
+                    return null;
+            }
+        }
+
+        //parsing happens on the pipeline decode thread, not on the transport thread
+        private SignalingTransport.Listener onMessage = new SignalingTransport.Listener() {
             @Override
             public void call(Object... args) {
-                JSONObject data = (JSONObject) args[0];
-                try {
-                    final String from = data.getString("from");
-                    final String type = data.getString("type");
-                    final JSONObject payload;
-                    if(!type.equals("init")) {
-                        payload = data.getJSONObject("payload");
-                    }else{
-                        payload = null;
-                    }
-                    Log.e("test","onMessage from:"+from+" type:" +type);
-                    executor.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            //check if we have a known peer
-                            if (mPeer == null) {
-                                //TODO use the end point to identify each user
-                                Peer peer = addPeer(from, 0);
-                                peer.pc.addStream(localMS);
-                            }
-                            try {
-                                commandMap.get(type).execute(from, payload);
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
+                signalingPipeline.receive(args[0]);
+            }
+        };
+
+        @Override
+        public void onDecoded(SignalingMessage message) {
+            SignalingRecorder recorder = WebRtcClient.this.recorder;
+            if (recorder != null) {
+                recorder.recordInbound(message);
+            }
+            if (message.kind == SignalingMessage.Kind.INIT) {
+                markSetupStart(message.peerId, CallSetupTracer.Event.INIT);
+            }
+        }
+
+        @Override
+        public boolean onMessage(SignalingMessage message) {
+            //rejected before taking an end point for its sender
+            Command command = commandOf(message.kind);
+            if (command == null) {
+                Log.w(TAG, "Unknown message type " + message.type + " from " + message.peerId);
+                return false;
+            }
+            if (outbox.isDuplicate(message)) {
+                Log.d(TAG, "Dropping duplicate " + message);
+                return true;
+            }
+            //check if we have a known peer
+            Peer peer = peers.get(message.peerId);
+            if (peer == null) {
+                peer = addPeer(message.peerId);
+                if (peer == null) {
+                    Log.w(TAG, "No free end point, ignoring " + message);
+                    return true;
+                }
+            }
+            command.execute(peer, message);
+            return true;
+        }
+
+        private SignalingTransport.Listener onCapabilities = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                JSONObject capabilities = (JSONObject) args[0];
+                binarySignaling = capabilities.optBoolean(SignalingCodec.CAPABILITY_BINARY, false);
+                Log.d(TAG, "Binary signaling " + (binarySignaling ? "accepted" : "refused") + " by the server");
+            }
+        };
+
+        private SignalingTransport.Listener onId = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                String id = (String) args[0];
+                SignalingRecorder recorder = WebRtcClient.this.recorder;
+                if (recorder != null) {
+                    recorder.recordId(id);
+                }
+                if (replayRing != null) {
+                    synchronized (replayRing) {
+                        if (sessionId != null && !awaitingReconnectId) {
+                            //reconnected, the session keeps its first id unless it cannot be resumed
+                            reconnectId = id;
+                            return;
                         }
-                    });
+                        awaitingReconnectId = false;
+                        sessionId = id;
+                    }
+                } else {
+                    sessionId = id;
+                }
+                mListener.onCallReady(id);
+            }
+        };
+
+        private SignalingTransport.Listener onConnect = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                //a resumed session sends its queued messages once the replay is done
+                if (replayRing == null || sessionId == null) {
+                    outbox.setPaused(false);
+                }
+            }
+        };
+
+        private SignalingTransport.Listener onDisconnect = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                outbox.setPaused(true);
+            }
+        };
+
+        private SignalingTransport.Listener onAck = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                replayRing.acknowledge(((JSONObject) args[0]).optLong("seq", 0));
+            }
+        };
+
+        private SignalingTransport.Listener onReconnect = new SignalingTransport.Listener() {
+            @Override
+            public void call(Object... args) {
+                if (sessionId == null) {
+                    return;
+                }
+                synchronized (replayRing) {
+                    reconnectId = null;
+                }
+                cancelResumeTimer();
+                resumePending.set(true);
+                try {
+                    JSONObject resume = new JSONObject();
+                    resume.put("session", sessionId);
+                    resume.put("seq", replayRing.nextSeq() - 1);
+                    mTransport.emit(SignalingTransport.EVENT_RESUME, resume);
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
+                resumeTimer = executor.schedule(resumeTimeout, SIGNALING_RESUME_TIMEOUT_MS);
             }
         };
 
-        private Emitter.Listener onId = new Emitter.Listener() {
+        private SignalingTransport.Listener onResumed = new SignalingTransport.Listener() {
             @Override
             public void call(Object... args) {
-                String id = (String) args[0];
-                mListener.onCallReady(id);
+                if (!resumePending.compareAndSet(true, false)) {
+                    Log.w(TAG, "Late \"resumed\", the session already started over");
+                    return;
+                }
+                cancelResumeTimer();
+                JSONObject resumed = (JSONObject) args[0];
+                resumeSession(resumed.optBoolean("resumed", false), resumed.optLong("ack", 0));
+            }
+        };
+
+        // a server that does not support resume never answers, the outbox would stay paused
+        private final Runnable resumeTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (resumePending.compareAndSet(true, false)) {
+                    Log.w(TAG, "No answer to \"resume\" in " + SIGNALING_RESUME_TIMEOUT_MS + " ms");
+                    resumeSession(false, 0);
+                }
             }
         };
+
+        private void cancelResumeTimer() {
+            LooperExecutor.ScheduledTask timer = resumeTimer;
+            resumeTimer = null;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
     }
 
-    private class Peer implements SdpObserver, PeerConnection.Observer{
-        private PeerConnection pc;
+    private class Peer implements SdpObserver, PeerConnection.Observer, IceCandidateBatcher.Sender, StatsObserver{
+        private PeerConnectionAdapter pc;
         private String id;
         private int endPoint;
+        // remote candidates received before the remote description was set, only used on the executor thread
+        private final ArrayDeque<IceCandidate> pendingCandidates = new ArrayDeque<>();
+        // coalesces local candidates, null when batching is disabled
+        private IceCandidateBatcher candidateBatcher;
+        private volatile boolean iceConnected = false;
+        // last send bandwidth estimate of this connection, 0 if unknown
+        private volatile int availableSendKbps = 0;
+        // cap given by the bandwidth allocator, 0 if not capped
+        private volatile int bandwidthCapKbps = 0;
+        // last renegotiation applying a cap, and the one waiting for the minimum interval,
+        // only used on the executor thread
+        private long capOfferNanos = 0;
+        private LooperExecutor.ScheduledTask capOfferTimer;
+        // an offer is being created and not set as local description yet
+        private volatile boolean makingOffer = false;
 
         @Override
         public void onCreateSuccess(final SessionDescription origSdp) {
-            try {
-                JSONObject payload = new JSONObject();
-
-                String sdpDescription = origSdp.description;
-
-                //modify sdp to use pcParams preferred codecs
-                /*if (preferIsac) {
-                    sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
+            if (origSdp.type == SessionDescription.Type.OFFER && !makingOffer) {
+                Log.d(TAG, "Dropping offer to " + id + " given up on glare");
+                return;
+            }
+            //modify sdp to use pcParams preferred codecs
+            final SessionDescription sdp = transformDescription(origSdp, SdpTransformChain.Direction.LOCAL, null);
+
+            sendSignal(SignalingMessage.description(id, sdp.type.canonicalForm(), sdp.description));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (sdp.type == SessionDescription.Type.OFFER && !makingOffer) {
+                        return;
+                    }
+                    pc.setLocalDescription(Peer.this, sdp);
                 }
-                if (videoCallEnabled && preferH264) {
-                    sdpDescription = preferCodec(sdpDescription, VIDEO_CODEC_H264, false);
-                }*/
-
+            });
+        }
 
+        // reused for every description set
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainPendingCandidates();
+            }
+        };
 
+        @Override
+        public void onSetSuccess() {
+            executor.execute(drainTask);
+        }
 
-                final SessionDescription sdp = new SessionDescription(
-                        origSdp.type, sdpDescription);
+        /**
+         * Add a remote candidate, or queue it until the remote description is set.
+         * Must be called on the executor thread.
+         */
+        private void addRemoteIceCandidate(IceCandidate candidate) {
+            if (pc.getRemoteDescription() != null) {
+                pc.addIceCandidate(candidate);
+                return;
+            }
+            if (pendingCandidates.size() >= MAX_PENDING_CANDIDATES) {
+                Log.w(TAG, "Pending candidate queue full, dropping candidate for " + id);
+                candidateCounters.onDropped(1);
+                return;
+            }
+            pendingCandidates.add(candidate);
+            candidateCounters.onBuffered();
+        }
 
-                payload.put("type", sdp.type.canonicalForm());
-                payload.put("sdp", sdp.description);
-                sendMessage(id, sdp.type.canonicalForm(), payload);
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        pc.setLocalDescription(Peer.this, sdp);
-                    }
-                });
-            } catch (JSONException e) {
-                e.printStackTrace();
+        /**
+         * Add the queued candidates once the remote description is set.
+         * Must be called on the executor thread.
+         */
+        private void drainPendingCandidates() {
+            if (pendingCandidates.isEmpty() || pc == null || pc.getRemoteDescription() == null) {
+                return;
             }
+            int count = pendingCandidates.size();
+            Log.d(TAG, "Flushing " + count + " pending candidates for " + id);
+            for (IceCandidate candidate : pendingCandidates) {
+                pc.addIceCandidate(candidate);
+            }
+            pendingCandidates.clear();
+            candidateCounters.onFlushed(count);
         }
 
-        @Override
-        public void onSetSuccess() {}
+        /**
+         * Forget the queued candidates when the peer goes away.
+         * Must be called on the executor thread.
+         */
+        private void discardPendingCandidates() {
+            if (!pendingCandidates.isEmpty()) {
+                candidateCounters.onDropped(pendingCandidates.size());
+                pendingCandidates.clear();
+            }
+        }
 
         @Override
-        public void onCreateFailure(String s) {}
+        public void onCreateFailure(String s) {
+            makingOffer = false;
+        }
 
         @Override
         public void onSetFailure(String s) {}
 
         @Override
-        public void onSignalingChange(PeerConnection.SignalingState signalingState) {}
+        public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+            if (signalingState == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                makingOffer = false;
+            }
+        }
 
         @Override
         public void onIceConnectionReceivingChange(boolean b) {
@@ -253,26 +693,60 @@ public class WebRtcClient {
         @Override
         public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
             if(iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED) {
-                onDestroy();
-                mListener.onStatusChanged(STATUS.DISCONNECTED);
+                iceConnected = false;
+                //only this peer goes away, the others keep their connection
+                removePeer(id);
             } else if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED){
+                iceConnected = true;
+                callSetupTracer.mark(id, CallSetupTracer.Event.CONNECTED);
                 mListener.onStatusChanged(STATUS.CONNECTED);
             }
         }
 
         @Override
-        public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {}
+        public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
+            if (iceGatheringState == PeerConnection.IceGatheringState.COMPLETE && candidateBatcher != null) {
+                candidateBatcher.flush();
+            }
+        }
 
         @Override
         public void onIceCandidate(final IceCandidate candidate) {
-            try {
-                JSONObject payload = new JSONObject();
-                payload.put("label", candidate.sdpMLineIndex);
-                payload.put("id", candidate.sdpMid);
-                payload.put("candidate", candidate.sdp);
-                sendMessage(id, "candidate", payload);
-            } catch (JSONException e) {
-                e.printStackTrace();
+            callSetupTracer.mark(id, CallSetupTracer.Event.FIRST_CANDIDATE);
+            if (candidateBatcher != null) {
+                candidateBatcher.add(candidate);
+                return;
+            }
+            SignalingMessage message = new SignalingMessage(id, SignalingMessage.TYPE_CANDIDATE);
+            message.candidates.add(toCandidate(candidate));
+            sendSignal(message);
+        }
+
+        @Override
+        public void send(List<IceCandidate> candidates) {
+            SignalingMessage message = new SignalingMessage(id, SignalingMessage.TYPE_CANDIDATES);
+            for (IceCandidate candidate : candidates) {
+                message.candidates.add(toCandidate(candidate));
+            }
+            Log.d(TAG, "Sending " + candidates.size() + " candidates to " + id);
+            sendSignal(message);
+        }
+
+        @Override
+        public void onComplete(StatsReport[] reports) {
+            for (StatsReport report : reports) {
+                if (!STATS_REPORT_BANDWIDTH.equals(report.id)) {
+                    continue;
+                }
+                for (StatsReport.Value value : report.values) {
+                    if (STATS_AVAILABLE_SEND_BANDWIDTH.equals(value.name)) {
+                        try {
+                            availableSendKbps = Integer.parseInt(value.value) / 1000;
+                        } catch (NumberFormatException e) {
+                            Log.w(TAG, "Bad send bandwidth estimate " + value.value);
+                        }
+                    }
+                }
             }
         }
 
@@ -297,55 +771,310 @@ public class WebRtcClient {
 
         }
 
-        public Peer(String id, int endPoint) {
+        /**
+         * Create the peer connection, not yet bound to a remote peer.
+         */
+        public Peer() {
+            this.pc = pcProvider.createPeerConnection(iceServers, pcConstraints, this);
+
+            //the local stream is shared by every peer connection
+            if (localMS != null) {
+                pc.addStream(localMS); //, new MediaConstraints()
+            }
+        }
+
+        /**
+         * Bind the peer connection to a remote peer.
+         */
+        private void attach(String id, int endPoint) {
             Log.d(TAG,"new Peer: "+id + " " + endPoint);
-            this.pc = factory.createPeerConnection(iceServers, pcConstraints, this);
             this.id = id;
             this.endPoint = endPoint;
-
-            pc.addStream(localMS); //, new MediaConstraints()
+            if (pcParams.candidateBatchWindowMs > 0) {
+                candidateBatcher = new IceCandidateBatcher(batchScheduler, pcParams.candidateBatchWindowMs,
+                        MAX_CANDIDATE_BATCH, this);
+            }
 
             mListener.onStatusChanged(STATUS.CONNECTING);
         }
+
+        /**
+         * Create an offer. Must be called on the executor thread.
+         */
+        private void createOffer() {
+            makingOffer = true;
+            pc.createOffer(this, pcConstraints);
+        }
+
+        /**
+         * Renegotiate to apply bandwidthCapKbps to the answer, at most once per
+         * BANDWIDTH_RENEGOTIATION_INTERVAL_MS. A cap changed in between is applied by the
+         * deferred renegotiation. Must be called on the executor thread.
+         */
+        private void renegotiateCap() {
+            if (pc == null || capOfferTimer != null) {
+                return;
+            }
+            long waitMs = BANDWIDTH_RENEGOTIATION_INTERVAL_MS
+                    - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - capOfferNanos);
+            if (capOfferNanos != 0 && waitMs > 0) {
+                capOfferTimer = executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        capOfferTimer = null;
+                        renegotiateCap();
+                    }
+                }, waitMs);
+                return;
+            }
+            //a negotiation in progress applies the cap to its own answer
+            if (pc.signalingState() == PeerConnection.SignalingState.STABLE) {
+                capOfferNanos = System.nanoTime();
+                createOffer();
+            }
+        }
+
+        /**
+         * Replace the peer connection by a new one, dropping the local offer and its
+         * candidates. Must be called on the executor thread.
+         */
+        private void resetConnection() {
+            makingOffer = false;
+            discardPendingCandidates();
+            if (candidateBatcher != null) {
+                candidateBatcher.cancel();
+            }
+            outbox.discard(id);
+            if (localMS != null) {
+                pc.removeStream(localMS);
+            }
+            pc.dispose();
+            pc = pcProvider.createPeerConnection(iceServers, pcConstraints, this);
+            if (localMS != null) {
+                pc.addStream(localMS);
+            }
+        }
+
+        /**
+         * Release the peer connection without disposing the shared local stream.
+         * Must be called on the executor thread.
+         */
+        private void dispose() {
+            discardPendingCandidates();
+            if (candidateBatcher != null) {
+                candidateBatcher.cancel();
+            }
+            if (capOfferTimer != null) {
+                capOfferTimer.cancel(false);
+                capOfferTimer = null;
+            }
+            if (pc != null) {
+                if (localMS != null) {
+                    pc.removeStream(localMS);
+                }
+                pc.dispose();
+                pc = null;
+            }
+        }
     }
 
-    private Peer addPeer(String id, int endPoint) {
-        Peer peer = new Peer(id, endPoint);
-        mPeer = peer;
+    /**
+     * Create a peer on the first free end point.
+     * Must be called on the executor thread.
+     *
+     * @return the new peer or null if MAX_PEER peers are already connected
+     */
+    private Peer addPeer(String id) {
+        int endPoint = allocateEndPoint();
+        if (endPoint < 0) {
+            return null;
+        }
+        Peer peer = warmPeer;
+        if (peer != null) {
+            Log.d(TAG, "Using pre-warmed peer connection for " + id);
+            warmPeer = null;
+        } else {
+            peer = new Peer();
+        }
+        peer.attach(id, endPoint);
+        peers.put(id, peer);
+        if (pcParams.preWarmPeerConnection) {
+            //queued, running it inline would put its cost back on the answer path
+            executor.post(warmUp, LooperExecutor.Lane.BACKGROUND);
+        }
         return peer;
     }
 
+    /**
+     * Create an idle peer connection with the local stream attached ahead of the next call,
+     * taking createPeerConnection and addStream off the answer path.
+     */
+    private final Runnable warmUp = new Runnable() {
+        @Override
+        public void run() {
+            if (warmPeer != null || pcProvider == null || localMS == null || peers.size() >= MAX_PEER) {
+                return;
+            }
+            warmPeer = new Peer();
+        }
+    };
+
+    /**
+     * Tear a peer down in the negotiation lane, in order with the messages of that
+     * peer already queued.
+     */
     private void removePeer(final String id) {
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                if (mPeer != null && mPeer.id.equals(id)) {
-                    mPeer.pc.close();
-                    mPeer = null;
+                Peer peer = peers.remove(id);
+                if (peer == null) {
+                    return;
+                }
+                outbox.removePeer(id);
+                Log.d(TAG, "Remove peer: " + id + " " + peer.endPoint);
+                peer.dispose();
+                callSetupTracer.discard(id);
+                if (bandwidthAllocator != null) {
+                    bandwidthAllocator.remove(id);
+                }
+                releaseEndPoint(peer.endPoint);
+                mListener.onRemoveRemoteStream(peer.endPoint + 1);
+                if (peers.isEmpty()) {
+                    mListener.onStatusChanged(STATUS.DISCONNECTED);
                 }
             }
         });
+    }
 
-        //endPoints[mPeer.endPoint] = false;
+    /**
+     * Poll the send bandwidth estimate of every peer connection and split the sum
+     * between the connected peers. The estimates read are those of the previous poll.
+     * An estimate is bounded by the cap of its connection, the allocator headroom
+     * lets the caps grow back.
+     */
+    private final Runnable bandwidthPoller = new Runnable() {
+        @Override
+        public void run() {
+            int uplinkKbps = 0;
+            List<String> activePeers = new ArrayList<>(peers.size());
+            for (Peer peer : peers.values()) {
+                if (peer.pc == null || !peer.iceConnected) {
+                    continue;
+                }
+                activePeers.add(peer.id);
+                uplinkKbps += peer.availableSendKbps;
+                peer.pc.getStats(peer, null);
+            }
+            bandwidthAllocator.allocate(uplinkKbps, activePeers);
+            bandwidthPollTimer = executor.schedule(this, BANDWIDTH_POLL_INTERVAL_MS,
+                    LooperExecutor.Lane.BACKGROUND);
+        }
+    };
+
+    private final BandwidthAllocator.Listener onAllocationChanged = new BandwidthAllocator.Listener() {
+        @Override
+        public void onAllocationChanged(final String peerId, final int bitrateKbps) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Peer peer = peers.get(peerId);
+                    if (peer == null || peer.pc == null) {
+                        return;
+                    }
+                    Log.d(TAG, "Bandwidth cap of " + peerId + ": " + bitrateKbps + " kbps");
+                    peer.bandwidthCapKbps = bitrateKbps;
+                    peer.renegotiateCap();
+                }
+            });
+        }
+    };
+
+    private int allocateEndPoint() {
+        synchronized (endPoints) {
+            for (int i = 0; i < MAX_PEER; i++) {
+                if (!endPoints[i]) {
+                    endPoints[i] = true;
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private void releaseEndPoint(int endPoint) {
+        synchronized (endPoints) {
+            endPoints[endPoint] = false;
+        }
     }
 
+    /**
+     * Create a client talking to a socket.io signaling server.
+     *
+     * @param host url of the signaling server
+     */
     public WebRtcClient(RtcListener listener, String host, PeerConnectionParameters params, EGLContext mEGLcontext) {
+        this(listener, createSocketIoTransport(host), params, mEGLcontext);
+    }
+
+    /**
+     * Create a client on a given signaling transport, e.g. a {@link LoopbackSignalingTransport}.
+     */
+    public WebRtcClient(RtcListener listener, SignalingTransport transport, PeerConnectionParameters params,
+                        EGLContext mEGLcontext) {
+        this(listener, transport, params, null, mEGLcontext);
+    }
+
+    /**
+     * Create a client whose peer connections come from a provider, e.g. the stubs of
+     * {@link SignalingReplay}. No native code is initialized: the client only
+     * signals and {@link #start(String)} does not create a local stream.
+     */
+    public WebRtcClient(RtcListener listener, SignalingTransport transport, PeerConnectionParameters params,
+                        PeerConnectionAdapter.Provider provider) {
+        this(listener, transport, params, provider, null);
+    }
+
+    private WebRtcClient(RtcListener listener, SignalingTransport transport, PeerConnectionParameters params,
+                         PeerConnectionAdapter.Provider provider, EGLContext mEGLcontext) {
         mListener = listener;
         pcParams = params;
-        PeerConnectionFactory.initializeAndroidGlobals(listener, true, true,
-                params.videoCodecHwAcceleration, mEGLcontext);
+        videoCodec = AppRTCUtils.selectVideoCodec(params.videoCodec, params.videoCodecHwAcceleration);
+        sdpTransforms = SdpTransformChain.fromParameters(params, videoCodec);
+        if (params.bandwidthAllocation) {
+            bandwidthAllocator = new BandwidthAllocator(BANDWIDTH_MIN_KBPS, BANDWIDTH_HEADROOM,
+                    BANDWIDTH_CHANGE_THRESHOLD, onAllocationChanged);
+        }
+        if (provider == null) {
+            PeerConnectionFactory.initializeAndroidGlobals(listener, true, true,
+                    params.videoCodecHwAcceleration, mEGLcontext);
+        }
+        pcProvider = provider;
         executor = new LooperExecutor();
         executor.requestStart();
+        outbox = new SignalingOutbox(executor, emitSignal);
         MessageHandler messageHandler = new MessageHandler();
-
-        try {
-            mSocket = IO.socket(host);
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
+        signalingPipeline = new SignalingPipeline(dispatchExecutor, SIGNALING_RECEIVE_CAPACITY,
+                SIGNALING_DISPATCH_CAPACITY, messageHandler);
+
+        mTransport = transport;
+        mTransport.on(SignalingTransport.EVENT_ID, messageHandler.onId);
+        mTransport.on(SignalingTransport.EVENT_MESSAGE, messageHandler.onMessage);
+        mTransport.on(SignalingTransport.EVENT_CONNECT, messageHandler.onConnect);
+        mTransport.on(SignalingTransport.EVENT_DISCONNECT, messageHandler.onDisconnect);
+        if (params.binarySignaling) {
+            mTransport.on(SignalingTransport.EVENT_CAPABILITIES, messageHandler.onCapabilities);
+        }
+        if (params.signalingResume) {
+            replayRing = new SignalingReplayRing(SIGNALING_REPLAY_CAPACITY);
+            mTransport.on(SignalingTransport.EVENT_ACK, messageHandler.onAck);
+            mTransport.on(SignalingTransport.EVENT_RECONNECT, messageHandler.onReconnect);
+            mTransport.on(SignalingTransport.EVENT_RESUMED, messageHandler.onResumed);
+        }
+        mTransport.connect();
+        if (params.binarySignaling) {
+            offerCapabilities();
         }
-        mSocket.on("id", messageHandler.onId);
-        mSocket.on("message", messageHandler.onMessage);
-        mSocket.connect();
 
         iceServers.add(new PeerConnection.IceServer("stun:23.21.150.121"));
         iceServers.add(new PeerConnection.IceServer("stun:stun.l.google.com:19302"));
@@ -356,12 +1085,107 @@ public class WebRtcClient {
         }
         pcConstraints.optional.add(new MediaConstraints.KeyValuePair("DtlsSrtpKeyAgreement", "true"));
 
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                factory = new PeerConnectionFactory();
-            }
-        });
+        if (provider == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    factory = new PeerConnectionFactory();
+                    pcProvider = nativePeerConnections;
+                }
+            });
+        }
+    }
+
+    private final PeerConnectionAdapter.Provider nativePeerConnections = new PeerConnectionAdapter.Provider() {
+        @Override
+        public PeerConnectionAdapter createPeerConnection(List<PeerConnection.IceServer> iceServers,
+                                                          MediaConstraints constraints,
+                                                          PeerConnection.Observer observer) {
+            return new PeerConnectionAdapter.Native(factory.createPeerConnection(iceServers, constraints, observer));
+        }
+    };
+
+    /**
+     * Record every inbound and outbound signaling message, see {@link SignalingRecorder}.
+     * Replaces the current recording, if any.
+     */
+    public void startRecording(SignalingRecorder recorder) {
+        SignalingRecorder previous = this.recorder;
+        this.recorder = recorder;
+        if (sessionId != null) {
+            recorder.recordId(sessionId);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stop recording and close the recording stream.
+     */
+    public void stopRecording() {
+        SignalingRecorder previous = recorder;
+        recorder = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return counters of remote candidates queued before the remote description was set
+     */
+    public IceCandidateCounters getCandidateCounters() {
+        return candidateCounters;
+    }
+
+    /**
+     * @return tracer of the call setup steps, to add listeners or read the time-to-media histogram
+     */
+    public CallSetupTracer getCallSetupTracer() {
+        return callSetupTracer;
+    }
+
+    /**
+     * @return queue latency, run time and depth of the peer connection executor
+     */
+    public LooperExecutor.Metrics getExecutorMetrics() {
+        return executor.getMetrics();
+    }
+
+    /**
+     * Offer binary frames to the server. A server that does not know the event never
+     * answers and messages stay JSON.
+     */
+    private void offerCapabilities() {
+        try {
+            JSONObject capabilities = new JSONObject();
+            capabilities.put(SignalingCodec.CAPABILITY_BINARY, true);
+            mTransport.emit(SignalingTransport.EVENT_CAPABILITIES, capabilities);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return drops and per stage timings of inbound signaling messages
+     */
+    public SignalingPipeline.Metrics getSignalingMetrics() {
+        return signalingPipeline.getMetrics();
+    }
+
+    /**
+     * @return sent, superseded and duplicate signaling message counts
+     */
+    public SignalingOutbox getSignalingOutbox() {
+        return outbox;
+    }
+
+    private static SignalingTransport createSocketIoTransport(String host) {
+        try {
+            return new SocketIoSignalingTransport(host);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Bad signaling server url " + host, e);
+        }
     }
 
     /**
@@ -386,22 +1210,41 @@ public class WebRtcClient {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (bandwidthPollTimer != null) {
+                    bandwidthPollTimer.cancel(false);
+                    bandwidthPollTimer = null;
+                }
 
                 if (videoSource != null) {
                     videoSource.stop();
                 }
 
-                if (mPeer != null && mPeer.pc != null) {
-                    mPeer.pc.dispose();
-                    mPeer.pc = null;
+                for (Peer peer : peers.values()) {
+                    peer.dispose();
+                }
+                peers.clear();
+                if (warmPeer != null) {
+                    warmPeer.dispose();
+                    warmPeer = null;
+                }
+                synchronized (endPoints) {
+                    Arrays.fill(endPoints, false);
+                }
+
+                if (localMS != null) {
+                    localMS.dispose();
+                    localMS = null;
                 }
 
-                factory.dispose();
+                if (factory != null) {
+                    factory.dispose();
+                }
             }
         });
+        stopRecording();
+        mTransport.disconnect();
+        signalingPipeline.shutdown();
         executor.requestStop();
-        mSocket.disconnect();
-        mSocket.close();
     }
 
     /**
@@ -417,7 +1260,7 @@ public class WebRtcClient {
         try {
             JSONObject message = new JSONObject();
             message.put("name", name);
-            mSocket.emit("readyToStream", message);
+            mTransport.emit(SignalingTransport.EVENT_READY_TO_STREAM, message);
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -425,10 +1268,22 @@ public class WebRtcClient {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (factory == null) {
+                    Log.w(TAG, "No native factory, starting without local stream");
+                    return;
+                }
                 configOutput();
+                if (pcParams.preWarmPeerConnection) {
+                    warmUp.run();
+                }
             }
         });
 
+        if (bandwidthAllocator != null) {
+            bandwidthPollTimer = executor.schedule(bandwidthPoller, BANDWIDTH_POLL_INTERVAL_MS,
+                    LooperExecutor.Lane.BACKGROUND);
+        }
+
     }
 
     private void configOutput(){
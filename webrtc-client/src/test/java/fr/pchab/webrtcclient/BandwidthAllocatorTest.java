@@ -0,0 +1,107 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthAllocatorTest {
+
+    private final Map<String, Integer> changes = new HashMap<>();
+    private BandwidthAllocator allocator;
+
+    @Before
+    public void setUp() {
+        allocator = new BandwidthAllocator(30, 1.5f, 0.2f, new BandwidthAllocator.Listener() {
+            @Override
+            public void onAllocationChanged(String peerId, int bitrateKbps) {
+                changes.put(peerId, bitrateKbps);
+            }
+        });
+    }
+
+    @Test
+    public void singlePeerIsNotCapped() {
+        allocator.allocate(1000, Collections.singletonList("a"));
+        assertTrue(changes.isEmpty());
+        assertEquals(0, allocator.getAllocation("a"));
+    }
+
+    @Test
+    public void capsAreTheShareWithHeadroom() {
+        allocator.allocate(1000, Arrays.asList("a", "b"));
+        assertEquals(750, (int) changes.get("a"));
+        assertEquals(750, (int) changes.get("b"));
+        assertEquals(750, allocator.getAllocation("a"));
+    }
+
+    @Test
+    public void smallChangesAreNotReported() {
+        List<String> peers = Arrays.asList("a", "b");
+        allocator.allocate(1000, peers);
+        changes.clear();
+        allocator.allocate(1100, peers);
+        assertTrue(changes.isEmpty());
+        assertEquals(750, allocator.getAllocation("a"));
+    }
+
+    @Test
+    public void capsGrowBackWhenTheConnectionsUseThem() {
+        List<String> peers = Arrays.asList("a", "b");
+        allocator.allocate(400, peers);
+        assertEquals(300, allocator.getAllocation("a"));
+        // each estimate reaches its cap, the sum is above the previous uplink
+        allocator.allocate(600, peers);
+        assertEquals(450, allocator.getAllocation("a"));
+        allocator.allocate(900, peers);
+        assertEquals(675, allocator.getAllocation("b"));
+    }
+
+    @Test
+    public void capsHaveALowerBound() {
+        allocator.allocate(20, Arrays.asList("a", "b", "c"));
+        assertEquals(30, allocator.getAllocation("c"));
+    }
+
+    @Test
+    public void unknownUplinkKeepsTheCaps() {
+        List<String> peers = Arrays.asList("a", "b");
+        allocator.allocate(1000, peers);
+        changes.clear();
+        allocator.allocate(0, peers);
+        assertTrue(changes.isEmpty());
+        assertEquals(750, allocator.getAllocation("b"));
+    }
+
+    @Test
+    public void capIsLiftedWhenTheMeshEnds() {
+        allocator.allocate(1000, Arrays.asList("a", "b"));
+        changes.clear();
+        allocator.allocate(1000, Collections.singletonList("a"));
+        assertEquals(0, (int) changes.get("a"));
+        assertEquals(1, changes.size());
+        assertEquals(0, allocator.getAllocation("b"));
+    }
+
+    @Test
+    public void removedPeerGetsANewCap() {
+        List<String> peers = Arrays.asList("a", "b");
+        allocator.allocate(1000, peers);
+        allocator.remove("a");
+        changes.clear();
+        allocator.allocate(1000, peers);
+        assertEquals(Collections.singletonMap("a", 750), changes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHeadroomBelowOne() {
+        new BandwidthAllocator(30, 0.5f, 0.2f, null);
+    }
+}
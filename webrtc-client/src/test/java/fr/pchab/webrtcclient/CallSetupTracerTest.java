@@ -0,0 +1,105 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallSetupTracerTest {
+    private static final long STAGE_MS = 5;
+    private static final long STAGE_NANOS = STAGE_MS * 1000000;
+
+    private final CallSetupTracer tracer = new CallSetupTracer();
+    private final List<CallSetupTracer.CallTrace> traced = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        tracer.addListener(new CallSetupTracer.Listener() {
+            @Override
+            public void onCallSetupTraced(String peerId, CallSetupTracer.CallTrace trace) {
+                assertEquals("a", peerId);
+                traced.add(trace);
+            }
+        });
+    }
+
+    private void markAfterStage(String peerId, CallSetupTracer.Event event) throws InterruptedException {
+        Thread.sleep(STAGE_MS);
+        tracer.mark(peerId, event);
+    }
+
+    @Test
+    public void stageDurationsAddUpToTimeToMedia() throws InterruptedException {
+        tracer.mark("a", CallSetupTracer.Event.CREATE_OFFER);
+        markAfterStage("a", CallSetupTracer.Event.SET_REMOTE_ANSWER);
+        markAfterStage("a", CallSetupTracer.Event.FIRST_CANDIDATE);
+        markAfterStage("a", CallSetupTracer.Event.CONNECTED);
+
+        assertEquals(1, traced.size());
+        CallSetupTracer.CallTrace trace = traced.get(0);
+        assertEquals(0, trace.getOffsetNanos(CallSetupTracer.Event.CREATE_OFFER));
+        assertEquals(-1, trace.getOffsetNanos(CallSetupTracer.Event.INIT));
+        assertEquals(-1, trace.getStageNanos(CallSetupTracer.Event.CREATE_ANSWER));
+        long total = 0;
+        for (CallSetupTracer.Event event : new CallSetupTracer.Event[]{CallSetupTracer.Event.SET_REMOTE_ANSWER,
+                CallSetupTracer.Event.FIRST_CANDIDATE, CallSetupTracer.Event.CONNECTED}) {
+            long stage = trace.getStageNanos(event);
+            assertTrue(event + " took " + stage, stage >= STAGE_NANOS);
+            total += stage;
+            assertEquals(total, trace.getOffsetNanos(event));
+        }
+        assertEquals(total, trace.getTimeToMediaNanos());
+
+        LatencyHistogram.Snapshot timeToMedia = tracer.getTimeToMedia();
+        assertEquals(1, timeToMedia.getCount());
+        assertEquals(total, timeToMedia.getMaxNanos());
+        assertEquals(trace.getOffsetNanos(CallSetupTracer.Event.FIRST_CANDIDATE),
+                tracer.getEventOffset(CallSetupTracer.Event.FIRST_CANDIDATE).getMaxNanos());
+        assertEquals(0, tracer.getEventOffset(CallSetupTracer.Event.CREATE_ANSWER).getCount());
+    }
+
+    @Test
+    public void onlyFirstOccurrenceOfAnEventIsKept() throws InterruptedException {
+        tracer.mark("a", CallSetupTracer.Event.CREATE_ANSWER);
+        markAfterStage("a", CallSetupTracer.Event.FIRST_CANDIDATE);
+        markAfterStage("a", CallSetupTracer.Event.FIRST_CANDIDATE);
+        markAfterStage("a", CallSetupTracer.Event.CONNECTED);
+
+        CallSetupTracer.CallTrace trace = traced.get(0);
+        long firstCandidate = trace.getOffsetNanos(CallSetupTracer.Event.FIRST_CANDIDATE);
+        assertTrue(firstCandidate < 2 * STAGE_NANOS);
+        assertTrue(trace.getStageNanos(CallSetupTracer.Event.CONNECTED) >= 2 * STAGE_NANOS);
+    }
+
+    @Test
+    public void eventsWithoutTraceAreIgnored() {
+        tracer.mark("a", CallSetupTracer.Event.FIRST_CANDIDATE);
+        tracer.mark("a", CallSetupTracer.Event.CONNECTED);
+        assertTrue(traced.isEmpty());
+        assertEquals(0, tracer.getTimeToMedia().getCount());
+
+        // a trace completed once is not reopened by a later candidate or connection
+        tracer.mark("a", CallSetupTracer.Event.INIT);
+        tracer.mark("a", CallSetupTracer.Event.CONNECTED);
+        tracer.mark("a", CallSetupTracer.Event.FIRST_CANDIDATE);
+        tracer.mark("a", CallSetupTracer.Event.CONNECTED);
+        assertEquals(1, traced.size());
+        assertNotNull(traced.get(0));
+    }
+
+    @Test
+    public void discardCountsAbandonedTraces() {
+        tracer.mark("b", CallSetupTracer.Event.CREATE_OFFER);
+        tracer.discard("b");
+        tracer.discard("b");
+        assertEquals(1, tracer.getAbandonedTraces());
+
+        tracer.mark("b", CallSetupTracer.Event.CONNECTED);
+        assertTrue(traced.isEmpty());
+    }
+}
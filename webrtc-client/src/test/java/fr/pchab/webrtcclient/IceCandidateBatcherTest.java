@@ -0,0 +1,140 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IceCandidateBatcherTest {
+    private static final long WINDOW_MS = 50;
+    private static final int MAX_BATCH = 3;
+
+    // window timers in scheduling order, run by the test
+    private final List<FutureTask<Void>> timers = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<List<String>> sent = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final IceCandidateBatcher.Scheduler scheduler = new IceCandidateBatcher.Scheduler() {
+        @Override
+        public Future<?> schedule(Runnable task, long delayMs) {
+            FutureTask<Void> timer = new FutureTask<>(task, null);
+            timers.add(timer);
+            delays.add(delayMs);
+            return timer;
+        }
+    };
+    private final IceCandidateBatcher.Sender sender = new IceCandidateBatcher.Sender() {
+        @Override
+        public void send(List<IceCandidate> candidates) {
+            List<String> batch = new ArrayList<>();
+            for (IceCandidate candidate : candidates) {
+                batch.add(candidate.sdp);
+            }
+            sent.add(batch);
+        }
+    };
+    private IceCandidateBatcher batcher;
+
+    @Before
+    public void setUp() {
+        batcher = new IceCandidateBatcher(scheduler, WINDOW_MS, MAX_BATCH, sender);
+    }
+
+    private static IceCandidate candidate(String sdp) {
+        return new IceCandidate("audio", 0, sdp);
+    }
+
+    @Test
+    public void batchIsSentWhenWindowExpires() {
+        batcher.add(candidate("c1"));
+        batcher.add(candidate("c2"));
+        assertTrue(sent.isEmpty());
+        assertEquals(1, timers.size());
+        assertEquals(WINDOW_MS, (long) delays.get(0));
+
+        timers.get(0).run();
+        assertEquals(Arrays.asList(Arrays.asList("c1", "c2")), sent);
+
+        // the next candidate opens a new window
+        batcher.add(candidate("c3"));
+        assertEquals(2, timers.size());
+        timers.get(1).run();
+        assertEquals(Arrays.asList(Arrays.asList("c1", "c2"), Arrays.asList("c3")), sent);
+    }
+
+    @Test
+    public void fullBatchIsSentAtOnceAndCancelsTimer() {
+        batcher.add(candidate("c1"));
+        batcher.add(candidate("c2"));
+        batcher.add(candidate("c3"));
+        assertEquals(Arrays.asList(Arrays.asList("c1", "c2", "c3")), sent);
+        assertTrue(timers.get(0).isCancelled());
+    }
+
+    @Test
+    public void batchesGoOutInTheOrderTheyWereTaken() throws InterruptedException {
+        final CountDownLatch timerBatchTaken = new CountDownLatch(1);
+        final CountDownLatch fullBatchSent = new CountDownLatch(1);
+        batcher = new IceCandidateBatcher(scheduler, WINDOW_MS, MAX_BATCH, new IceCandidateBatcher.Sender() {
+            @Override
+            public void send(List<IceCandidate> candidates) {
+                if (!candidates.get(0).sdp.equals("c1")) {
+                    sender.send(candidates);
+                    fullBatchSent.countDown();
+                    return;
+                }
+                // gives the full batch the chance to overtake this one
+                timerBatchTaken.countDown();
+                try {
+                    fullBatchSent.await(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sender.send(candidates);
+            }
+        });
+        batcher.add(candidate("c1"));
+        Thread timer = new Thread(timers.get(0));
+        timer.start();
+        assertTrue(timerBatchTaken.await(5, TimeUnit.SECONDS));
+        batcher.add(candidate("c2"));
+        batcher.add(candidate("c3"));
+        batcher.add(candidate("c4"));
+        timer.join();
+
+        assertEquals(Arrays.asList(Arrays.asList("c1"), Arrays.asList("c2", "c3", "c4")), sent);
+    }
+
+    @Test
+    public void flushSendsRemainingCandidatesAndStopsTimer() {
+        batcher.add(candidate("c1"));
+        batcher.add(candidate("c2"));
+        batcher.flush();
+        assertEquals(Arrays.asList(Arrays.asList("c1", "c2")), sent);
+        assertTrue(timers.get(0).isCancelled());
+
+        // nothing left when gathering completes again or the cancelled timer fires
+        timers.get(0).run();
+        batcher.flush();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void cancelDropsCandidates() {
+        batcher.add(candidate("c1"));
+        batcher.cancel();
+        assertTrue(timers.get(0).isCancelled());
+        batcher.flush();
+        assertTrue(sent.isEmpty());
+    }
+}
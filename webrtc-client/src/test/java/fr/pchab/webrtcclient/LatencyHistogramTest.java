@@ -0,0 +1,81 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    // one duration in each of bucket 0 (under 1us), 1 ([1, 2) us), 2 ([2, 4) us) and 7 ([64, 128) us)
+    private static LatencyHistogram.Snapshot fourDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000);
+        histogram.record(100000);
+        return histogram.snapshot();
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfItsBucket() {
+        LatencyHistogram.Snapshot snapshot = fourDurations();
+        assertEquals(4, snapshot.getCount());
+        assertEquals(1000, snapshot.getPercentileNanos(0));
+        assertEquals(1000, snapshot.getPercentileNanos(25));
+        assertEquals(2000, snapshot.getPercentileNanos(50));
+        assertEquals(4000, snapshot.getPercentileNanos(75));
+    }
+
+    @Test
+    public void percentileIsCappedByMax() {
+        LatencyHistogram.Snapshot snapshot = fourDurations();
+        assertEquals(100000, snapshot.getMaxNanos());
+        // bucket 7 ends at 128us
+        assertEquals(100000, snapshot.getPercentileNanos(99));
+        assertEquals(100000, snapshot.getPercentileNanos(100));
+        assertEquals((500 + 1500 + 3000 + 100000) / 4, snapshot.getMeanNanos());
+    }
+
+    @Test
+    public void longDurationsGoToLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        long[] buckets = snapshot.getBuckets();
+        assertEquals(1, buckets[buckets.length - 1]);
+        assertEquals(Long.MAX_VALUE / 2, snapshot.getPercentileNanos(50));
+        assertEquals(Long.MAX_VALUE / 2, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void emptySnapshotReportsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(50));
+        assertEquals(0, snapshot.getMaxNanos());
+        assertEquals(0, snapshot.getMeanNanos());
+    }
+
+    @Test
+    public void negativeDurationIsRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getBuckets()[0]);
+        assertEquals(0, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterRecordsOrReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1500);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        histogram.record(100000);
+        histogram.reset();
+
+        assertEquals(1, snapshot.getCount());
+        assertEquals(1500, snapshot.getMaxNanos());
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMaxNanos());
+    }
+}
@@ -0,0 +1,61 @@
+package fr.pchab.webrtcclient;
+
+/**
+ * Session descriptions shared by the SDP tests, trimmed from real offers.
+ */
+final class SdpFixtures {
+
+    /** Opus first, ISAC second; VP8, VP9 and H264 each with an rtx, red and ulpfec with none. */
+    static final String AUDIO_VIDEO = lines(
+            "v=0",
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1",
+            "s=-",
+            "t=0 0",
+            "a=group:BUNDLE audio video",
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0 126",
+            "c=IN IP4 0.0.0.0",
+            "a=mid:audio",
+            "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+            "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "a=rtcp-mux",
+            "a=rtpmap:111 opus/48000/2",
+            "a=fmtp:111 minptime=10; useinbandfec=1",
+            "a=rtpmap:103 ISAC/16000",
+            "a=rtpmap:9 G722/8000",
+            "a=rtpmap:126 telephone-event/8000",
+            "a=ssrc:3570614608 cname:4TOk42mSjXCkVIa6",
+            "m=video 9 UDP/TLS/RTP/SAVPF 100 101 107 116 117 96 97 99 98",
+            "c=IN IP4 0.0.0.0",
+            "a=mid:video",
+            "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset",
+            "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "a=rtcp-mux",
+            "a=rtpmap:100 VP8/90000",
+            "a=rtcp-fb:100 nack",
+            "a=rtpmap:101 VP9/90000",
+            "a=rtcp-fb:101 nack",
+            "a=rtpmap:107 H264/90000",
+            "a=rtcp-fb:107 nack",
+            "a=fmtp:107 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f",
+            "a=rtpmap:116 red/90000",
+            "a=rtpmap:117 ulpfec/90000",
+            "a=rtpmap:96 rtx/90000",
+            "a=fmtp:96 apt=100",
+            "a=rtpmap:97 rtx/90000",
+            "a=fmtp:97 apt=101",
+            "a=rtpmap:99 rtx/90000",
+            "a=fmtp:99 apt=107",
+            "a=rtpmap:98 rtx/90000",
+            "a=fmtp:98 apt=116",
+            "a=ssrc:2231627014 cname:4TOk42mSjXCkVIa6");
+
+    private SdpFixtures() {}
+
+    static String lines(String... lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append("\r\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SdpModelTest {
+
+    @Test
+    public void roundTripIsLossless() {
+        assertEquals(SdpFixtures.AUDIO_VIDEO, SdpModel.parse(SdpFixtures.AUDIO_VIDEO).toString());
+    }
+
+    @Test
+    public void roundTripTerminatesBareLineFeeds() {
+        String sdp = "v=0\nm=audio 9 RTP/SAVPF 111\na=rtpmap:111 opus/48000/2";
+        assertEquals("v=0\r\nm=audio 9 RTP/SAVPF 111\r\na=rtpmap:111 opus/48000/2\r\n",
+                SdpModel.parse(sdp).toString());
+    }
+
+    @Test
+    public void indexesSectionsByPayloadType() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertEquals(5, sdp.getSessionLines().size());
+        assertEquals(2, sdp.getMediaSections().size());
+        SdpModel.MediaSection video = sdp.getMediaSection("video");
+        assertEquals("UDP/TLS/RTP/SAVPF", video.getProto());
+        assertEquals("107", video.findPayloadType("h264"));
+        assertEquals(Arrays.asList("96", "97", "99", "98"), video.findPayloadTypes("rtx"));
+        assertEquals("VP9/90000", video.getEncoding("101"));
+        assertEquals("1", video.getFormatParameters("107").get("packetization-mode"));
+        assertNull(sdp.getMediaSection("application"));
+    }
+
+    @Test
+    public void preferFormatsKeepsTheGivenOrder() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        SdpModel.MediaSection video = sdp.getMediaSection("video");
+        video.preferFormats(Arrays.asList("107", "101"));
+        assertEquals(Arrays.asList("107", "101", "100", "116", "117", "96", "97", "99", "98"), video.getFormats());
+        assertTrue(sdp.toString().contains("m=video 9 UDP/TLS/RTP/SAVPF 107 101 100 116 117 96 97 99 98\r\n"));
+    }
+
+    @Test
+    public void removeFormatDropsItsLines() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        SdpModel.MediaSection video = sdp.getMediaSection("video");
+        assertTrue(video.removeFormat("107"));
+        assertFalse(video.removeFormat("107"));
+        String result = sdp.toString();
+        assertFalse(result.contains("a=rtpmap:107 "));
+        assertFalse(result.contains("a=rtcp-fb:107 "));
+        assertFalse(result.contains("a=fmtp:107 "));
+        assertTrue(result.contains("a=rtpmap:100 VP8/90000\r\na=rtcp-fb:100 nack\r\n"));
+    }
+
+    @Test
+    public void newFormatParametersFollowTheRtpmap() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        sdp.getMediaSection("video").getFormatParameters("100").put("x-google-start-bitrate", "800");
+        assertTrue(sdp.toString().contains(
+                "a=rtpmap:100 VP8/90000\r\na=fmtp:100 x-google-start-bitrate=800\r\na=rtcp-fb:100 nack\r\n"));
+    }
+
+    @Test
+    public void editedFormatParametersReplaceTheLine() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        SdpModel.FormatParameters opus = sdp.getMediaSection("audio").getFormatParameters("111");
+        opus.put("usedtx", "1");
+        assertTrue(opus.remove("minptime"));
+        assertTrue(sdp.toString().contains("a=fmtp:111 useinbandfec=1;usedtx=1\r\n"));
+    }
+
+    @Test
+    public void untouchedFormatParametersAreNotWritten() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        sdp.getMediaSection("audio").getFormatParameters("103");
+        assertEquals(SdpFixtures.AUDIO_VIDEO, sdp.toString());
+    }
+
+    @Test
+    public void attributesAndBandwidth() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        SdpModel.MediaSection audio = sdp.getMediaSection("audio");
+        assertEquals("audio", audio.getAttribute("mid"));
+        assertEquals("", audio.getAttribute("rtcp-mux"));
+        audio.setAttribute("ptime", "40");
+        assertEquals("40", audio.getAttribute("ptime"));
+        audio.setBandwidth("AS", 64);
+        assertEquals(64, audio.getBandwidth("AS"));
+        // b= goes right after c=
+        assertEquals("b=AS:64", audio.getLines().get(1));
+        assertEquals(1, audio.removeAttribute("ptime"));
+        audio.setBandwidth("AS", -1);
+        assertEquals(-1, audio.getBandwidth("AS"));
+        assertEquals(SdpFixtures.AUDIO_VIDEO, sdp.toString());
+    }
+}
@@ -0,0 +1,80 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SdpTransformChainTest {
+
+    private static PeerConnectionParameters parameters(String videoCodec, String audioCodec, int audioStartBitrate) {
+        return new PeerConnectionParameters(true, false, 1280, 720, 30, 0, videoCodec, true,
+                audioStartBitrate, audioCodec, false, true);
+    }
+
+    @Test
+    public void returnsTheSameDescriptionWhenNothingChanges() {
+        SdpTransformChain chain = SdpTransformChain.fromParameters(parameters("VP8", "opus", 0));
+        assertTrue(chain.isEmpty(SdpTransformChain.Direction.LOCAL));
+        assertSame(SdpFixtures.AUDIO_VIDEO, chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.LOCAL));
+        assertSame(SdpFixtures.AUDIO_VIDEO, chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.REMOTE));
+    }
+
+    @Test
+    public void prefersIsacButNotAConfiguredVideoCodec() {
+        SdpTransformChain chain = SdpTransformChain.fromParameters(parameters("VP9", "ISAC", 32));
+        SdpModel remote = SdpModel.parse(chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.REMOTE));
+        assertEquals("103", remote.getMediaSection("audio").getFormats().get(0));
+        assertEquals("100", remote.getMediaSection("video").getFormats().get(0));
+        assertEquals("32000", remote.getMediaSection("audio").getFormatParameters("111").get("maxaveragebitrate"));
+
+        SdpModel local = SdpModel.parse(chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.LOCAL));
+        assertEquals("103", local.getMediaSection("audio").getFormats().get(0));
+        // the start bitrate only applies to remote descriptions
+        assertEquals(null, local.getMediaSection("audio").getFormatParameters("111").get("maxaveragebitrate"));
+    }
+
+    @Test
+    public void prefersTheAutomaticallyPickedVideoCodec() {
+        SdpTransformChain chain = SdpTransformChain.fromParameters(parameters("auto", "opus", 0), "H264");
+        SdpModel local = SdpModel.parse(chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.LOCAL));
+        assertEquals("107", local.getMediaSection("video").getFormats().get(0));
+    }
+
+    @Test
+    public void minimizesLocalDescriptionsOnly() {
+        PeerConnectionParameters params = parameters("VP8", "opus", 0);
+        params.sdpCodecAllowList = new String[0];
+        SdpTransformChain chain = SdpTransformChain.fromParameters(params);
+        SdpModel local = SdpModel.parse(chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.LOCAL));
+        // the configured codecs are always allowed
+        assertEquals(Arrays.asList("111", "0"), local.getMediaSection("audio").getFormats());
+        assertEquals(Arrays.asList("100", "96"), local.getMediaSection("video").getFormats());
+        assertSame(SdpFixtures.AUDIO_VIDEO, chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.REMOTE));
+    }
+
+    @Test
+    public void runsTheExtraStageInTheSamePass() {
+        SdpTransformChain chain = SdpTransformChain.fromParameters(parameters("VP8", "opus", 0));
+        String result = chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.REMOTE,
+                SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO, "VP8", 300));
+        assertEquals(300, SdpModel.parse(result).getMediaSection("video").getBandwidth("AS"));
+        assertFalse(chain.describeLastRun().isEmpty());
+    }
+
+    @Test
+    public void timesEveryStage() {
+        SdpTransformChain chain = new SdpTransformChain()
+                .add("prefer-isac", SdpTransforms.preferCodec(SdpTransforms.MEDIA_AUDIO, "ISAC"), true, false);
+        chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.LOCAL);
+        chain.apply(SdpFixtures.AUDIO_VIDEO, SdpTransformChain.Direction.REMOTE);
+        // parse, prefer-isac, extra, serialize
+        assertEquals(4, chain.getTimings().size());
+        assertEquals(1, chain.getTimings().get(1).getCount());
+        assertEquals(1, chain.getTimings().get(3).getCount());
+    }
+}
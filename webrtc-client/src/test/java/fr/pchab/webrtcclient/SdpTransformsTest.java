@@ -0,0 +1,89 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SdpTransformsTest {
+
+    @Test
+    public void preferCodecMovesItFirst() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.preferCodec(SdpTransforms.MEDIA_AUDIO, "ISAC").apply(sdp));
+        assertEquals(Arrays.asList("103", "111", "9", "0", "126"), sdp.getMediaSection("audio").getFormats());
+    }
+
+    @Test
+    public void preferCodecLeavesTheFirstCodecAlone() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertFalse(SdpTransforms.preferCodec(SdpTransforms.MEDIA_AUDIO, "opus").apply(sdp));
+        assertFalse(SdpTransforms.preferCodec(SdpTransforms.MEDIA_VIDEO, "AV1").apply(sdp));
+        assertFalse(SdpTransforms.preferCodec("application", "VP8").apply(sdp));
+        assertEquals(SdpFixtures.AUDIO_VIDEO, sdp.toString());
+    }
+
+    @Test
+    public void startBitrateInsertsAnFmtpLine() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.startBitrate(SdpTransforms.MEDIA_VIDEO, "VP9", 1000).apply(sdp));
+        assertTrue(SdpTransforms.startBitrate(SdpTransforms.MEDIA_AUDIO, "opus", 32).apply(sdp));
+        String result = sdp.toString();
+        assertTrue(result.contains("a=rtpmap:101 VP9/90000\r\na=fmtp:101 x-google-start-bitrate=1000\r\n"));
+        assertTrue(result.contains("a=fmtp:111 minptime=10;useinbandfec=1;maxaveragebitrate=32000\r\n"));
+    }
+
+    @Test
+    public void maxBitrateCapsTheSection() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.maxBitrate(SdpTransforms.MEDIA_VIDEO, null, 500).apply(sdp));
+        SdpModel.MediaSection video = sdp.getMediaSection("video");
+        assertEquals(500, video.getBandwidth("AS"));
+        assertEquals("500", video.getFormatParameters("100").get("x-google-max-bitrate"));
+    }
+
+    @Test
+    public void minimizeKeepsTheRtxOfKeptCodecs() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.minimize(new String[]{"opus", "vp8", "h264"}, null).apply(sdp));
+        // 0 is a static payload type without rtpmap, there is nothing to match it against
+        assertEquals(Arrays.asList("111", "0"), sdp.getMediaSection("audio").getFormats());
+        assertEquals(Arrays.asList("100", "107", "96", "99"), sdp.getMediaSection("video").getFormats());
+        String result = sdp.toString();
+        assertTrue(result.contains("a=fmtp:96 apt=100\r\n"));
+        assertTrue(result.contains("a=fmtp:99 apt=107\r\n"));
+        assertFalse(result.contains("a=rtpmap:97 "));
+        assertFalse(result.contains("a=fmtp:98 "));
+        assertFalse(result.contains("a=rtcp-fb:101 "));
+        assertFalse(result.contains("telephone-event"));
+    }
+
+    @Test
+    public void minimizeKeepsASectionWithoutAllowedCodecs() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.minimize(new String[]{"opus"}, null).apply(sdp));
+        assertEquals(9, sdp.getMediaSection("video").getFormats().size());
+    }
+
+    @Test
+    public void minimizeStripsHeaderExtensions() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        String absSendTime = "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time";
+        assertTrue(SdpTransforms.minimize(null, new String[]{absSendTime}).apply(sdp));
+        String result = sdp.toString();
+        assertFalse(result.contains("ssrc-audio-level"));
+        assertFalse(result.contains("toffset"));
+        assertTrue(result.contains("a=extmap:3 " + absSendTime + "\r\n"));
+        assertFalse(SdpTransforms.minimize(null, new String[]{absSendTime}).apply(sdp));
+    }
+
+    @Test
+    public void packetTimeSetsPtime() {
+        SdpModel sdp = SdpModel.parse(SdpFixtures.AUDIO_VIDEO);
+        assertTrue(SdpTransforms.packetTime(SdpTransforms.MEDIA_AUDIO, 60).apply(sdp));
+        assertEquals("60", sdp.getMediaSection("audio").getAttribute("ptime"));
+    }
+}
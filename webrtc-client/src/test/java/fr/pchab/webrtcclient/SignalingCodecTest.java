@@ -0,0 +1,136 @@
+package fr.pchab.webrtcclient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignalingCodecTest {
+
+    private static SignalingMessage candidates() {
+        SignalingMessage message = new SignalingMessage("peer-1", SignalingMessage.TYPE_CANDIDATES);
+        message.candidates.add(new SignalingMessage.Candidate("audio", 0,
+                "candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host generation 0"));
+        message.candidates.add(new SignalingMessage.Candidate("video", 1,
+                "candidate:2 1 udp 1686052607 203.0.113.7 61000 typ srflx raddr 192.168.1.2 rport 54322"));
+        return message;
+    }
+
+    private static SignalingMessage offer() {
+        SignalingMessage message = SignalingMessage.description("peer-1", SignalingMessage.TYPE_OFFER,
+                SdpFixtures.AUDIO_VIDEO + "a=label:caf\u00e9\r\n");
+        message.seq = 300;
+        message.peerSeq = 42;
+        message.peerEpoch = 1476800000000L;
+        return message;
+    }
+
+    // the outbound form names the recipient, the inbound one the sender
+    private static SignalingMessage viaJson(SignalingMessage message) throws Exception {
+        JSONObject json = SignalingCodec.toJson(message);
+        json.put("from", json.getString("to"));
+        return SignalingCodec.fromJson(json, new SignalingMessage());
+    }
+
+    private static SignalingMessage viaBinary(SignalingMessage message) {
+        return SignalingCodec.decode(new SignalingCodec().encode(message), new SignalingMessage());
+    }
+
+    private static void assertSameMessage(SignalingMessage expected, SignalingMessage actual) {
+        assertEquals(expected.peerId, actual.peerId);
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.kind, actual.kind);
+        assertEquals(expected.sdp, actual.sdp);
+        assertEquals(expected.seq, actual.seq);
+        assertEquals(expected.peerSeq, actual.peerSeq);
+        assertEquals(expected.peerEpoch, actual.peerEpoch);
+        assertEquals(expected.candidates.size(), actual.candidates.size());
+        for (int i = 0; i < expected.candidates.size(); i++) {
+            assertEquals(expected.candidates.get(i).sdpMid, actual.candidates.get(i).sdpMid);
+            assertEquals(expected.candidates.get(i).sdpMLineIndex, actual.candidates.get(i).sdpMLineIndex);
+            assertEquals(expected.candidates.get(i).sdp, actual.candidates.get(i).sdp);
+        }
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        assertSameMessage(offer(), viaJson(offer()));
+        assertSameMessage(candidates(), viaJson(candidates()));
+        SignalingMessage init = new SignalingMessage("peer-1", SignalingMessage.TYPE_INIT);
+        assertSameMessage(init, viaJson(init));
+    }
+
+    @Test
+    public void jsonOmitsUnsetNumbers() throws Exception {
+        JSONObject json = SignalingCodec.toJson(candidates());
+        assertTrue(!json.has("seq") && !json.has("peerSeq") && !json.has("peerEpoch"));
+        assertEquals(2, json.getJSONObject("payload").getJSONArray("candidates").length());
+        assertNull(SignalingCodec.payloadToJson(new SignalingMessage("peer-1", SignalingMessage.TYPE_INIT)));
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        assertSameMessage(offer(), viaBinary(offer()));
+        assertSameMessage(candidates(), viaBinary(candidates()));
+        SignalingMessage answer = SignalingMessage.description("peer-2", SignalingMessage.TYPE_ANSWER, "");
+        assertSameMessage(answer, viaBinary(answer));
+        SignalingMessage candidate = new SignalingMessage("peer-1", SignalingMessage.TYPE_CANDIDATE);
+        candidate.candidates.add(new SignalingMessage.Candidate("0", 300, "candidate:3 1 tcp 1 ::1 9 typ host"));
+        assertSameMessage(candidate, viaBinary(candidate));
+        SignalingMessage init = new SignalingMessage("peer-1", SignalingMessage.TYPE_INIT);
+        init.peerSeq = 1;
+        assertSameMessage(init, viaBinary(init));
+    }
+
+    @Test
+    public void encoderBufferIsReused() {
+        SignalingCodec codec = new SignalingCodec();
+        byte[] large = codec.encode(offer());
+        byte[] small = codec.encode(candidates());
+        assertSameMessage(candidates(), SignalingCodec.decode(small, new SignalingMessage()));
+        assertSameMessage(offer(), SignalingCodec.decode(large, new SignalingMessage()));
+    }
+
+    @Test
+    public void peeksTheKindOfAFrame() {
+        SignalingCodec codec = new SignalingCodec();
+        assertEquals(SignalingMessage.Kind.OFFER, SignalingCodec.peekKind(codec.encode(offer())));
+        assertEquals(SignalingMessage.Kind.CANDIDATES, SignalingCodec.peekKind(codec.encode(candidates())));
+        assertEquals(SignalingMessage.Kind.UNKNOWN, SignalingCodec.peekKind(new byte[]{1}));
+        assertEquals(SignalingMessage.Kind.UNKNOWN, SignalingCodec.peekKind(new byte[]{2, 2, 0}));
+        assertEquals(SignalingMessage.Kind.UNKNOWN, SignalingCodec.peekKind(new byte[]{1, 9, 0}));
+    }
+
+    @Test
+    public void rejectsMalformedFrames() {
+        byte[] frame = new SignalingCodec().encode(offer());
+        byte[][] malformed = {
+                new byte[]{2, 2, 0},
+                new byte[]{1, 9, 0},
+                java.util.Arrays.copyOf(frame, frame.length / 2)
+        };
+        for (byte[] bad : malformed) {
+            try {
+                SignalingCodec.decode(bad, new SignalingMessage());
+                fail("decoded a malformed frame");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void onlyKnownTypesHaveABinaryForm() {
+        assertTrue(SignalingCodec.isEncodable(SignalingMessage.TYPE_CANDIDATES));
+        assertTrue(!SignalingCodec.isEncodable("bye"));
+        try {
+            new SignalingCodec().encode(new SignalingMessage("peer-1", "bye"));
+            fail("encoded an unknown type");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SignalingOutboxTest {
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final List<SignalingMessage> sent = new ArrayList<>();
+    private SignalingOutbox outbox;
+
+    @Before
+    public void setUp() {
+        outbox = new SignalingOutbox(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, new SignalingOutbox.Sender() {
+            @Override
+            public void send(SignalingMessage message) {
+                sent.add(message);
+            }
+        });
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static SignalingMessage candidate(String peerId, String sdp) {
+        SignalingMessage message = new SignalingMessage(peerId, SignalingMessage.TYPE_CANDIDATE);
+        message.candidates.add(new SignalingMessage.Candidate("audio", 0, sdp));
+        return message;
+    }
+
+    private static SignalingMessage received(String peerId, long peerEpoch, long peerSeq) {
+        SignalingMessage message = candidate(peerId, "candidate:" + peerSeq);
+        message.peerEpoch = peerEpoch;
+        message.peerSeq = peerSeq;
+        return message;
+    }
+
+    @Test
+    public void newerDescriptionReplacesQueuedOne() {
+        outbox.enqueue(SignalingMessage.description("a", SignalingMessage.TYPE_ANSWER, "v=0 first"));
+        SignalingMessage second = SignalingMessage.description("a", SignalingMessage.TYPE_ANSWER, "v=0 second");
+        outbox.enqueue(second);
+        runTasks();
+        assertEquals(1, sent.size());
+        assertSame(second, sent.get(0));
+        assertEquals(1, outbox.getSuperseded());
+    }
+
+    @Test
+    public void newerOfferDropsTheCandidatesOfTheQueuedOne() {
+        outbox.enqueue(SignalingMessage.description("a", SignalingMessage.TYPE_OFFER, "v=0 stale"));
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(candidate("a", "candidate:2"));
+        SignalingMessage offer = SignalingMessage.description("a", SignalingMessage.TYPE_OFFER, "v=0 fresh");
+        outbox.enqueue(offer);
+        SignalingMessage fresh = candidate("a", "candidate:3");
+        outbox.enqueue(fresh);
+        runTasks();
+        assertEquals(2, sent.size());
+        assertSame(offer, sent.get(0));
+        assertSame(fresh, sent.get(1));
+        assertEquals(3, outbox.getSuperseded());
+    }
+
+    @Test
+    public void firstOfferKeepsQueuedCandidates() {
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(SignalingMessage.description("a", SignalingMessage.TYPE_OFFER, "v=0"));
+        runTasks();
+        assertEquals(2, sent.size());
+        assertEquals(0, outbox.getSuperseded());
+    }
+
+    @Test
+    public void controlMessagesGoBeforeCandidates() {
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(new SignalingMessage("a", SignalingMessage.TYPE_INIT));
+        outbox.enqueue(SignalingMessage.description("a", SignalingMessage.TYPE_ANSWER, "v=0"));
+        runTasks();
+        assertEquals(3, sent.size());
+        assertEquals(SignalingMessage.Kind.INIT, sent.get(0).kind);
+        assertEquals(SignalingMessage.Kind.ANSWER, sent.get(1).kind);
+        assertEquals(SignalingMessage.Kind.CANDIDATE, sent.get(2).kind);
+    }
+
+    @Test
+    public void candidateIsNotQueuedTwice() {
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(candidate("b", "candidate:1"));
+        runTasks();
+        assertEquals(2, sent.size());
+        assertEquals(1, outbox.getSuperseded());
+    }
+
+    @Test
+    public void numbersMessagesPerPeer() {
+        outbox.enqueue(candidate("a", "candidate:1"));
+        outbox.enqueue(candidate("b", "candidate:1"));
+        outbox.enqueue(candidate("a", "candidate:2"));
+        runTasks();
+        assertEquals(3, outbox.getSent());
+        long epoch = 0;
+        for (SignalingMessage message : sent) {
+            assertTrue(message.peerEpoch > 0);
+            if ("a".equals(message.peerId)) {
+                assertEquals(message.candidates.get(0).sdp.equals("candidate:1") ? 1 : 2, message.peerSeq);
+                assertTrue(epoch == 0 || epoch == message.peerEpoch);
+                epoch = message.peerEpoch;
+            } else {
+                assertEquals(1, message.peerSeq);
+            }
+        }
+    }
+
+    @Test
+    public void pauseHoldsMessages() {
+        outbox.setPaused(true);
+        outbox.enqueue(candidate("a", "candidate:1"));
+        runTasks();
+        assertTrue(sent.isEmpty());
+        outbox.setPaused(false);
+        runTasks();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void discardKeepsSequenceNumbers() {
+        outbox.enqueue(candidate("a", "candidate:1"));
+        runTasks();
+        outbox.enqueue(candidate("a", "candidate:2"));
+        outbox.discard("a");
+        outbox.enqueue(candidate("a", "candidate:3"));
+        runTasks();
+        assertEquals(2, sent.size());
+        assertEquals(2, sent.get(1).peerSeq);
+        assertEquals(sent.get(0).peerEpoch, sent.get(1).peerEpoch);
+    }
+
+    @Test
+    public void dropsMessagesAlreadyReceived() {
+        assertFalse(outbox.isDuplicate(received("a", 7, 1)));
+        assertFalse(outbox.isDuplicate(received("a", 7, 2)));
+        assertTrue(outbox.isDuplicate(received("a", 7, 2)));
+        assertTrue(outbox.isDuplicate(received("a", 7, 1)));
+        assertFalse(outbox.isDuplicate(received("b", 7, 1)));
+        assertFalse(outbox.isDuplicate(received("a", 0, 0)));
+        assertEquals(2, outbox.getDuplicates());
+    }
+
+    @Test
+    public void newEpochRestartsNumbering() {
+        assertFalse(outbox.isDuplicate(received("a", 7, 1)));
+        assertFalse(outbox.isDuplicate(received("a", 7, 2)));
+        // the sender removed us and starts over
+        assertFalse(outbox.isDuplicate(received("a", 9, 1)));
+        assertTrue(outbox.isDuplicate(received("a", 9, 1)));
+        // late message of the previous epoch
+        assertTrue(outbox.isDuplicate(received("a", 7, 3)));
+    }
+
+    @Test
+    public void removedPeerIsReceivedAgainAfterOneSidedTeardown() {
+        outbox.enqueue(new SignalingMessage("b", SignalingMessage.TYPE_INIT));
+        outbox.enqueue(candidate("b", "candidate:1"));
+        runTasks();
+        outbox.removePeer("b");
+        outbox.enqueue(new SignalingMessage("b", SignalingMessage.TYPE_INIT));
+        runTasks();
+        assertEquals(3, sent.size());
+        assertEquals(1, sent.get(2).peerSeq);
+        assertTrue(sent.get(2).peerEpoch > sent.get(0).peerEpoch);
+
+        // b kept its receive state, it must still accept the new init
+        SignalingOutbox remote = new SignalingOutbox(new Executor() {
+            @Override
+            public void execute(Runnable command) {}
+        }, null);
+        for (SignalingMessage message : sent) {
+            message.peerId = "a";
+            assertFalse(remote.isDuplicate(message));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignalingPipelineTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final SignalingCodec codec = new SignalingCodec();
+    // drain tasks posted by the decode thread, run on the test thread
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final List<String> handled = new ArrayList<>();
+    private SignalingPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new SignalingPipeline(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, 2, 1, new SignalingPipeline.Handler() {
+            @Override
+            public void onDecoded(SignalingMessage message) {
+            }
+
+            @Override
+            public boolean onMessage(SignalingMessage message) {
+                handled.add(message.peerId + ":" + (message.isDescription() ? message.type
+                        : message.candidates.get(0).sdp));
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    private byte[] candidate(String peerId, String sdp) {
+        SignalingMessage message = new SignalingMessage(peerId, SignalingMessage.TYPE_CANDIDATE);
+        message.candidates.add(new SignalingMessage.Candidate("audio", 0, sdp));
+        return codec.encode(message);
+    }
+
+    private byte[] description(String peerId, String type) {
+        return codec.encode(SignalingMessage.description(peerId, type, "v=0"));
+    }
+
+    /**
+     * Fills the dispatch queue with c1 and leaves the decode thread waiting for room
+     * with c2, so the frames received next stay in the receive queue.
+     */
+    private void stallDecoding() throws InterruptedException {
+        assertTrue(pipeline.receive(candidate("a", "c1")));
+        Runnable drain = tasks.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (drain == null) {
+            fail("c1 was not decoded");
+        }
+        tasks.add(drain);
+        assertTrue(pipeline.receive(candidate("a", "c2")));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (pipeline.getMetrics().receiveQueueDepth > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("c2 was not taken by the decode thread");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private void dispatch(int expected) throws InterruptedException {
+        while (handled.size() < expected) {
+            Runnable task = tasks.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (task == null) {
+                fail("handled only " + handled);
+            }
+            task.run();
+        }
+    }
+
+    @Test
+    public void candidateIsDroppedWhenQueueIsFull() throws InterruptedException {
+        stallDecoding();
+        assertTrue(pipeline.receive(candidate("a", "c3")));
+        assertTrue(pipeline.receive(candidate("a", "c4")));
+        assertFalse(pipeline.receive(candidate("a", "c5")));
+
+        SignalingPipeline.Metrics metrics = pipeline.getMetrics();
+        assertEquals(5, metrics.received);
+        assertEquals(1, metrics.dropped);
+        assertEquals(0, metrics.evicted);
+        assertEquals(2, metrics.receiveQueueDepth);
+        dispatch(4);
+        assertEquals(Arrays.asList("a:c1", "a:c2", "a:c3", "a:c4"), handled);
+    }
+
+    @Test
+    public void descriptionEvictsOldestQueuedCandidate() throws InterruptedException {
+        stallDecoding();
+        assertTrue(pipeline.receive(candidate("b", "c3")));
+        assertTrue(pipeline.receive(candidate("a", "c4")));
+        assertTrue(pipeline.receive(description("b", SignalingMessage.TYPE_OFFER)));
+
+        SignalingPipeline.Metrics metrics = pipeline.getMetrics();
+        assertEquals(0, metrics.dropped);
+        assertEquals(1, metrics.evicted);
+        assertEquals(2, metrics.receiveQueueDepth);
+        dispatch(4);
+        assertEquals(Arrays.asList("a:c1", "a:c2", "a:c4", "b:offer"), handled);
+    }
+
+    @Test
+    public void descriptionIsQueuedBeyondCapacityWithoutCandidateToEvict() throws InterruptedException {
+        stallDecoding();
+        assertTrue(pipeline.receive(description("a", SignalingMessage.TYPE_OFFER)));
+        assertTrue(pipeline.receive(description("b", SignalingMessage.TYPE_OFFER)));
+        assertTrue(pipeline.receive(description("c", SignalingMessage.TYPE_ANSWER)));
+
+        SignalingPipeline.Metrics metrics = pipeline.getMetrics();
+        assertEquals(0, metrics.dropped);
+        assertEquals(0, metrics.evicted);
+        assertEquals(3, metrics.receiveQueueDepth);
+        dispatch(5);
+        assertEquals(Arrays.asList("a:c1", "a:c2", "a:offer", "b:offer", "c:answer"), handled);
+    }
+
+    @Test
+    public void framesOfAPeerKeepTheirOrder() throws InterruptedException {
+        stallDecoding();
+        assertTrue(pipeline.receive(candidate("b", "c3")));
+        assertTrue(pipeline.receive(candidate("a", "c4")));
+        assertTrue(pipeline.receive(description("a", SignalingMessage.TYPE_ANSWER)));
+        assertFalse(pipeline.receive(candidate("a", "c5")));
+
+        assertEquals(1, pipeline.getMetrics().evicted);
+        dispatch(4);
+        assertEquals(Arrays.asList("a:c1", "a:c2", "a:c4", "a:answer"), handled);
+    }
+}
@@ -0,0 +1,82 @@
+package fr.pchab.webrtcclient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SignalingReplayRingTest {
+
+    private static SignalingReplayRing ring(int capacity, int messages) {
+        SignalingReplayRing ring = new SignalingReplayRing(capacity);
+        for (int i = 0; i < messages; i++) {
+            ring.add(ring.nextSeq(), "m" + ring.nextSeq());
+        }
+        return ring;
+    }
+
+    @Test
+    public void numbersFromOne() {
+        SignalingReplayRing ring = new SignalingReplayRing(4);
+        assertEquals(1, ring.nextSeq());
+        ring.add(1, "m1");
+        assertEquals(2, ring.nextSeq());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfOrderNumbers() {
+        ring(4, 1).add(3, "m3");
+    }
+
+    @Test
+    public void acknowledgeForgetsReceivedMessages() {
+        SignalingReplayRing ring = ring(8, 5);
+        ring.acknowledge(3);
+        assertEquals(2, ring.size());
+        // stale and future acknowledgements
+        ring.acknowledge(2);
+        assertEquals(2, ring.size());
+        ring.acknowledge(99);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void sinceReturnsTheMessagesAfterTheAcknowledgedOne() {
+        SignalingReplayRing ring = ring(8, 5);
+        ring.acknowledge(1);
+        assertEquals(Arrays.<Object>asList("m3", "m4", "m5"), ring.since(2));
+        assertEquals(3, ring.size());
+        assertEquals(Collections.emptyList(), ring.since(5));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void sinceFailsWhenAMessageWasEvicted() {
+        SignalingReplayRing ring = ring(3, 5);
+        assertEquals(2, ring.getEvictedUnacked());
+        assertNull(ring.since(1));
+        assertEquals(Arrays.<Object>asList("m4", "m5"), ring.since(3));
+    }
+
+    @Test
+    public void acknowledgedMessagesAreNotCountedWhenEvicted() {
+        SignalingReplayRing ring = ring(2, 2);
+        ring.acknowledge(2);
+        ring.add(3, "m3");
+        ring.add(4, "m4");
+        ring.add(5, "m5");
+        assertEquals(1, ring.getEvictedUnacked());
+    }
+
+    @Test
+    public void resetRestartsNumbering() {
+        SignalingReplayRing ring = ring(4, 3);
+        ring.reset();
+        assertEquals(0, ring.size());
+        assertEquals(1, ring.nextSeq());
+        assertEquals(Collections.emptyList(), ring.since(0));
+    }
+}